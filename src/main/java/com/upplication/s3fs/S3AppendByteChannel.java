@@ -0,0 +1,107 @@
+package com.upplication.s3fs;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+
+/**
+ * Channel opened with APPEND on a existing object of at least {@link S3OutputStream#MIN_PART_SIZE} bytes.
+ * The writes are sent to a {@link S3OutputStream} that copies the object server-side as the first parts
+ * of a multipart upload, so the object is never downloaded.
+ * <p>
+ * Like a file opened for append, the position is always the end of the object and setting it has no effect
+ * on the writes. The channel cannot be read and can not be truncated to a smaller size.
+ * </p>
+ */
+class S3AppendByteChannel implements SeekableByteChannel {
+
+    private final S3Path path;
+    private final S3OutputStream stream;
+    private final long initialSize;
+    private long written;
+    private boolean open = true;
+
+    /**
+     * @param path     S3Path of the object, mandatory
+     * @param existing ObjectMetadata of the object (with the length and the ETag)
+     */
+    S3AppendByteChannel(S3Path path, ObjectMetadata existing) {
+        this.path = path;
+        this.stream = new S3OutputStream(path, existing);
+        this.initialSize = existing.getContentLength();
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        int len = src.remaining();
+        if (src.hasArray()) {
+            stream.write(src.array(), src.arrayOffset() + src.position(), len);
+            src.position(src.limit());
+        } else {
+            byte[] bytes = new byte[len];
+            src.get(bytes);
+            stream.write(bytes);
+        }
+        written += len;
+        return len;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        throw new NonReadableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        return size();
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        if (newPosition < 0)
+            throw new IllegalArgumentException(format("position must be positive: %s", newPosition));
+        ensureOpen();
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return initialSize + written;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        if (size < size())
+            throw new IOException(format("Cannot truncate a file opened for APPEND: %s", path));
+        return this;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * complete the upload of the appended content, if any
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open)
+            return;
+        open = false;
+        stream.close();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open)
+            throw new ClosedChannelException();
+    }
+}
@@ -0,0 +1,169 @@
+package com.upplication.s3fs;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.upplication.s3fs.attribute.S3BasicFileAttributes;
+
+/**
+ * Attributes of the paths of a {@link S3FileSystem} resolved recently, shared by all the S3Path instances
+ * so a new S3Path for the same bucket and key doesnt need a new request.
+ * <p>
+ * The entries expire {@link S3FileSystemProvider#ATTRIBUTES_CACHE_TTL} milliseconds after they are added
+ * (-1 never expires) and the least recently used are evicted when there are more than
+ * {@link S3FileSystemProvider#ATTRIBUTES_CACHE_SIZE} entries (0 disables the cache).
+ * </p>
+ * <p>
+ * The paths without object and without children are cached too for {@link S3FileSystemProvider#MISSING_CACHE_TTL}
+ * milliseconds, so polling a path that doesnt exist yet doesnt need a HEAD and a list request every time.
+ * </p>
+ * <p>
+ * Every write done with the fileSystem invalidates the entries of the written path and its ancestors,
+ * because a new object creates its parent virtual directories and deleting the last child removes them.
+ * </p>
+ * <p>
+ * The end slash is part of the entry: a bucket can have a object "dir" and a directory "dir/" at the same time,
+ * so the attributes of both are cached separately. The invalidations discard both entries.
+ * </p>
+ */
+public class S3AttributesCache {
+
+    public static final int DEFAULT_TTL = 60000;
+    public static final int DEFAULT_SIZE = 10000;
+    public static final int DEFAULT_MISSING_TTL = 5000;
+
+    private final Cache<String, S3BasicFileAttributes> cache;
+    private final Cache<String, Boolean> missing;
+
+    /**
+     * @param ttl        long milliseconds until an entry expires, -1 never expires
+     * @param size       long max entries of every cache, 0 disables the caches
+     * @param missingTtl long milliseconds until a missing path is requested again, -1 never expires and 0 disables it
+     */
+    public S3AttributesCache(long ttl, long size, long missingTtl) {
+        this.cache = build(ttl, size);
+        this.missing = build(missingTtl, size);
+    }
+
+    private static <V> Cache<String, V> build(long ttl, long size) {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .recordStats();
+        if (ttl >= 0)
+            builder.expireAfterWrite(ttl, TimeUnit.MILLISECONDS);
+        return builder.build();
+    }
+
+    /**
+     * @param path S3Path mandatory
+     * @return S3BasicFileAttributes cached or null if not found or expired
+     */
+    public S3BasicFileAttributes get(S3Path path) {
+        return cache.getIfPresent(toKey(path));
+    }
+
+    /**
+     * @param path       S3Path mandatory
+     * @param attributes S3BasicFileAttributes mandatory
+     */
+    public void put(S3Path path, S3BasicFileAttributes attributes) {
+        String key = toKey(path);
+        missing.invalidate(key);
+        cache.put(key, attributes);
+    }
+
+    /**
+     * @param path S3Path mandatory
+     * @return true if the path was not found recently
+     */
+    public boolean isMissing(S3Path path) {
+        return missing.getIfPresent(toKey(path)) != null;
+    }
+
+    /**
+     * register that the path has no object and no children
+     *
+     * @param path S3Path mandatory
+     */
+    public void putMissing(S3Path path) {
+        String key = toKey(path);
+        cache.invalidate(key);
+        missing.put(key, Boolean.TRUE);
+    }
+
+    /**
+     * discard the cached attributes of the path and its ancestors
+     *
+     * @param path S3Path mandatory
+     */
+    public void invalidate(S3Path path) {
+        String key = withoutEndSlash(toKey(path));
+        while (true) {
+            invalidate(key);
+            invalidate(key + S3Path.PATH_SEPARATOR);
+            int separator = key.lastIndexOf(S3Path.PATH_SEPARATOR);
+            if (separator < 0)
+                break;
+            key = key.substring(0, separator);
+        }
+    }
+
+    /**
+     * discard the cached attributes of all the descendants of the path
+     *
+     * @param path S3Path mandatory
+     */
+    public void invalidateDescendants(S3Path path) {
+        String prefix = withoutEndSlash(toKey(path)) + S3Path.PATH_SEPARATOR;
+        for (String key : cache.asMap().keySet())
+            if (key.startsWith(prefix))
+                cache.invalidate(key);
+        for (String key : missing.asMap().keySet())
+            if (key.startsWith(prefix))
+                missing.invalidate(key);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+        missing.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * @return CacheStats with the hits, misses and evictions since the fileSystem was created
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return CacheStats of the lookups of missing paths, a hit is a request saved
+     */
+    public CacheStats getMissingStats() {
+        return missing.stats();
+    }
+
+    private void invalidate(String key) {
+        cache.invalidate(key);
+        missing.invalidate(key);
+    }
+
+    /**
+     * the end slash is kept: "dir" and "dir/" are different entries
+     */
+    private String toKey(S3Path path) {
+        String key = path.getKey();
+        if (key.isEmpty() || key.equals(S3Path.PATH_SEPARATOR))
+            return path.getFileStore().name();
+        return path.getFileStore().name() + S3Path.PATH_SEPARATOR + key;
+    }
+
+    private static String withoutEndSlash(String key) {
+        return key.endsWith(S3Path.PATH_SEPARATOR) ? key.substring(0, key.length() - 1) : key;
+    }
+}
@@ -0,0 +1,32 @@
+package com.upplication.s3fs;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Some keys could not be deleted by a batch delete, the rest of keys were deleted.
+ */
+public class S3BatchDeleteException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, String> errors;
+
+    /**
+     * @param path   S3Path deleted
+     * @param errors Map with the key not deleted and the error code and message returned by S3
+     */
+    public S3BatchDeleteException(S3Path path, Map<String, String> errors) {
+        super(format("Cannot delete %s keys of the path: %s", errors.size(), path));
+        this.errors = Collections.unmodifiableMap(errors);
+    }
+
+    /**
+     * @return Map with the key not deleted and the error code and message returned by S3, sorted by key
+     */
+    public Map<String, String> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,192 @@
+package com.upplication.s3fs;
+
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.HeadBucketRequest;
+import com.amazonaws.services.s3.model.HeadBucketResult;
+import com.amazonaws.services.s3.model.Owner;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Metadata of the buckets used by a {@link S3FileSystem}, so opening a file or checking the access
+ * doesnt need to list all the buckets of the account.
+ * <p>
+ * The existence and the region are resolved with a single HEAD request of the bucket. The owner is read from
+ * the ACL of the bucket and the creation date from the listing of the buckets, both only the first time they are needed.
+ * A caller without permissions to administer the bucket gets a 403 for the HEAD and the ACL: the bucket is assumed
+ * to exist, with a unknown region and owner. The owner of the account, used instead of a unknown owner,
+ * is cached too.
+ * The buckets listed by {@link S3FileSystem#getFileStores()} are cached with all their metadata.
+ * </p>
+ * <p>
+ * The entries expire {@link S3FileSystemProvider#BUCKET_CACHE_TTL} milliseconds after they are added
+ * (-1 never expires and 0 disables the cache).
+ * </p>
+ */
+public class S3BucketCache {
+
+    public static final int DEFAULT_TTL = 300000;
+
+    private static final String ACCOUNT = "";
+
+    private final AmazonS3 client;
+    private final Cache<String, Optional<Entry>> cache;
+    private final Cache<String, Owner> accountOwner;
+
+    /**
+     * @param client AmazonS3 mandatory
+     * @param ttl    long milliseconds until an entry expires, -1 never expires and 0 disables the cache
+     */
+    public S3BucketCache(AmazonS3 client, long ttl) {
+        this.client = client;
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().recordStats();
+        if (ttl >= 0)
+            builder.expireAfterWrite(ttl, TimeUnit.MILLISECONDS);
+        this.cache = builder.build();
+        this.accountOwner = builder.build();
+    }
+
+    /**
+     * @param bucketName String mandatory
+     * @return Bucket with the name, null if the bucket doesnt exists
+     */
+    public Bucket get(String bucketName) {
+        Entry entry = getEntry(bucketName);
+        return entry == null ? null : entry.bucket;
+    }
+
+    /**
+     * The ACL of the bucket can only be read by the callers that can administer the bucket,
+     * a 403 is cached as a unknown owner so the request is not repeated.
+     *
+     * @param bucketName String mandatory
+     * @return Owner of the bucket, null if the bucket doesnt exists or the owner is unknown
+     */
+    public Owner getOwner(String bucketName) {
+        Entry entry = getEntry(bucketName);
+        if (entry == null)
+            return null;
+        if (entry.bucket.getOwner() == null && !entry.ownerUnknown) {
+            try {
+                entry.bucket.setOwner(client.getBucketAcl(bucketName).getOwner());
+            } catch (AmazonServiceException e) {
+                if (e.getStatusCode() != 403)
+                    throw e;
+                entry.ownerUnknown = true;
+            }
+        }
+        return entry.bucket.getOwner();
+    }
+
+    /**
+     * The owner of the account is requested with a listing of the buckets, it is cached with the same TTL
+     * so the buckets with a unknown owner dont repeat it in every access check.
+     *
+     * @return Owner of the account of the credentials
+     */
+    public Owner getAccountOwner() {
+        Owner owner = accountOwner.getIfPresent(ACCOUNT);
+        if (owner == null) {
+            owner = client.getS3AccountOwner();
+            if (owner != null)
+                accountOwner.put(ACCOUNT, owner);
+        }
+        return owner;
+    }
+
+    /**
+     * @param bucketName String mandatory
+     * @return Bucket with the owner and the creation date, null if the bucket doesnt exists
+     */
+    public Bucket getWithCreationDate(String bucketName) {
+        Entry entry = getEntry(bucketName);
+        if (entry == null)
+            return null;
+        if (entry.bucket.getCreationDate() == null) {
+            // only the listing has the creation date
+            for (Bucket bucket : client.listBuckets())
+                if (bucket.getName().equals(bucketName))
+                    entry.bucket.setCreationDate(bucket.getCreationDate());
+        }
+        getOwner(bucketName);
+        return entry.bucket;
+    }
+
+    /**
+     * @param bucketName String mandatory
+     * @return String region of the bucket returned by the HEAD request, null if unknown or the bucket doesnt exists
+     */
+    public String getRegion(String bucketName) {
+        Entry entry = getEntry(bucketName);
+        return entry == null ? null : entry.region;
+    }
+
+    /**
+     * register a bucket of a listing with all its metadata
+     *
+     * @param bucket Bucket mandatory
+     */
+    public void put(Bucket bucket) {
+        Optional<Entry> cached = cache.getIfPresent(bucket.getName());
+        String region = cached != null && cached.isPresent() ? cached.get().region : null;
+        cache.put(bucket.getName(), Optional.of(new Entry(bucket, region)));
+    }
+
+    /**
+     * discard the cached metadata of the bucket, after creating or deleting it
+     *
+     * @param bucketName String mandatory
+     */
+    public void invalidate(String bucketName) {
+        cache.invalidate(bucketName);
+    }
+
+    /**
+     * @return CacheStats with the hits, a hit is a request saved
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    private Entry getEntry(String bucketName) {
+        Optional<Entry> entry = cache.getIfPresent(bucketName);
+        if (entry == null) {
+            entry = load(bucketName);
+            cache.put(bucketName, entry);
+        }
+        return entry.orNull();
+    }
+
+    private Optional<Entry> load(String bucketName) {
+        HeadBucketResult result;
+        try {
+            result = client.headBucket(new HeadBucketRequest(bucketName));
+        } catch (AmazonServiceException e) {
+            if (e.getStatusCode() == 404)
+                return Optional.absent();
+            // the bucket exists but the caller only has permissions on its objects
+            if (e.getStatusCode() == 403)
+                return Optional.of(new Entry(new Bucket(bucketName), null));
+            throw e;
+        }
+        return Optional.of(new Entry(new Bucket(bucketName), result == null ? null : result.getBucketRegion()));
+    }
+
+    private static class Entry {
+
+        private final Bucket bucket;
+        private final String region;
+        private boolean ownerUnknown;
+
+        private Entry(Bucket bucket, String region) {
+            this.bucket = bucket;
+            this.region = region;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.upplication.s3fs;
 
 import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.util.IOUtils;
 import org.apache.tika.Tika;
 
@@ -17,37 +16,28 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
-import static java.lang.String.format;
-
 public class S3FileChannel extends FileChannel {
 
     private S3Path path;
     private Set<? extends OpenOption> options;
     private FileChannel filechannel;
     private Path tempFile;
+    private boolean dirty;
+    private String eTag;
 
     public S3FileChannel(S3Path path, Set<? extends OpenOption> options) throws IOException {
         this.path = path;
         this.options = Collections.unmodifiableSet(new HashSet<>(options));
         String key = path.getKey();
-        boolean exists = path.getFileSystem().provider().exists(path);
-
-        if (exists && this.options.contains(StandardOpenOption.CREATE_NEW))
-            throw new FileAlreadyExistsException(format("target already exists: %s", path));
-        else if (!exists && !this.options.contains(StandardOpenOption.CREATE_NEW) &&
-                !this.options.contains(StandardOpenOption.CREATE))
-            throw new NoSuchFileException(format("target not exists: %s", path));
-
         tempFile = Files.createTempFile("temp-s3-", key.replaceAll("/", "_"));
         boolean removeTempFile = true;
         try {
-            if (exists) {
-                try (S3Object object = path.getFileSystem()
-                        .getClient()
-                        .getObject(path.getFileStore().getBucket().getName(), key)) {
-                    Files.copy(object.getObjectContent(), tempFile, StandardCopyOption.REPLACE_EXISTING);
-                }
-            }
+            ObjectMetadata metadata = S3SeekableByteChannel.download(path, this.options, tempFile);
+            if (metadata != null)
+                eTag = metadata.getETag();
+            else
+                // a new or truncated object is always uploaded
+                dirty = true;
 
             Set<? extends OpenOption> fileChannelOptions = new HashSet<>(this.options);
             fileChannelOptions.remove(StandardOpenOption.CREATE_NEW);
@@ -72,11 +62,13 @@ public class S3FileChannel extends FileChannel {
 
     @Override
     public int write(ByteBuffer src) throws IOException {
+        dirty = true;
         return filechannel.write(src);
     }
 
     @Override
     public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        dirty = true;
         return filechannel.write(srcs, offset, length);
     }
 
@@ -97,7 +89,9 @@ public class S3FileChannel extends FileChannel {
 
     @Override
     public FileChannel truncate(long size) throws IOException {
-        return filechannel.truncate(size);
+        dirty = true;
+        filechannel.truncate(size);
+        return this;
     }
 
     @Override
@@ -112,6 +106,7 @@ public class S3FileChannel extends FileChannel {
 
     @Override
     public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+        dirty = true;
         return filechannel.transferFrom(src, position, count);
     }
 
@@ -122,11 +117,15 @@ public class S3FileChannel extends FileChannel {
 
     @Override
     public int write(ByteBuffer src, long position) throws IOException {
+        dirty = true;
         return filechannel.write(src, position);
     }
 
     @Override
     public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        // the writes to the buffer cannot be tracked
+        if (mode == MapMode.READ_WRITE)
+            dirty = true;
         return filechannel.map(mode, position, size);
     }
 
@@ -144,26 +143,29 @@ public class S3FileChannel extends FileChannel {
     protected void implCloseChannel() throws IOException {
         super.close();
         filechannel.close();
-        if (!this.options.contains(StandardOpenOption.READ)) {
-            sync();
+        try {
+            if (dirty)
+                sync();
+        } finally {
+            Files.deleteIfExists(tempFile);
         }
-        Files.deleteIfExists(tempFile);
     }
 
     /**
      * try to sync the temp file with the remote s3 path.
+     * Nothing is uploaded if the content is the same as the downloaded object.
      *
      * @throws IOException if the tempFile fails to open a newInputStream
      */
     protected void sync() throws IOException {
+        if (S3SeekableByteChannel.isUnchanged(eTag, Files.newInputStream(tempFile)))
+            return;
         try (InputStream stream = new BufferedInputStream(Files.newInputStream(tempFile))) {
             ObjectMetadata metadata = new ObjectMetadata();
             metadata.setContentLength(Files.size(tempFile));
             metadata.setContentType(new Tika().detect(stream, path.getFileName().toString()));
 
-            String bucket = path.getFileStore().name();
-            String key = path.getKey();
-            path.getFileSystem().getClient().putObject(bucket, key, stream, metadata);
+            S3SeekableByteChannel.upload(path, stream, metadata, options);
         }
     }
 }
@@ -5,7 +5,6 @@ import java.nio.file.FileStore;
 import java.nio.file.attribute.FileAttributeView;
 import java.nio.file.attribute.FileStoreAttributeView;
 
-import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.Bucket;
 import com.amazonaws.services.s3.model.Owner;
 import com.google.common.collect.ImmutableList;
@@ -65,8 +64,8 @@ public class S3FileStore extends FileStore implements Comparable<S3FileStore> {
     public <V extends FileStoreAttributeView> V getFileStoreAttributeView(Class<V> type) {
         if (type != S3FileStoreAttributeView.class)
             throw new IllegalArgumentException("FileStoreAttributeView of type '" + type.getName() + "' is not supported.");
-        Bucket buck = getBucket();
-        Owner owner = buck.getOwner();
+        Bucket buck = fileSystem.getBucketCache().getWithCreationDate(name);
+        Owner owner = getOwner();
         return (V) new S3FileStoreAttributeView(buck.getCreationDate(), buck.getName(), owner.getId(), owner.getDisplayName());
     }
 
@@ -79,30 +78,33 @@ public class S3FileStore extends FileStore implements Comparable<S3FileStore> {
         return fileSystem;
     }
 
+    /**
+     * @return Bucket cached by the fileSystem, null if the bucket doesnt exists
+     * @see S3BucketCache
+     */
     public Bucket getBucket() {
-        return getBucket(name);
+        return fileSystem.getBucketCache().get(name);
     }
 
-    private Bucket getBucket(String bucketName) {
-        for (Bucket buck : getClient().listBuckets())
-            if (buck.getName().equals(bucketName))
-                return buck;
-        return null;
+    /**
+     * @return String region of the bucket, null if unknown or the bucket doesnt exists
+     */
+    public String getRegion() {
+        return fileSystem.getBucketCache().getRegion(name);
     }
 
     public S3Path getRootDirectory() {
         return new S3Path(fileSystem, "/" + this.name());
     }
 
-    private AmazonS3 getClient() {
-        return fileSystem.getClient();
-    }
-
+    /**
+     * @return Owner of the bucket, or the owner of the account when the bucket owner is unknown
+     */
     public Owner getOwner() {
-        Bucket buck = getBucket();
-        if (buck != null)
-            return buck.getOwner();
-        return fileSystem.getClient().getS3AccountOwner();
+        Owner owner = fileSystem.getBucketCache().getOwner(name);
+        if (owner != null)
+            return owner;
+        return fileSystem.getBucketCache().getAccountOwner();
     }
 
     @Override
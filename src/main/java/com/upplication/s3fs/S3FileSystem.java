@@ -9,12 +9,17 @@ import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.Bucket;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * S3FileSystem with a concrete client configured and ready to use.
@@ -27,14 +32,27 @@ public class S3FileSystem extends FileSystem implements Comparable<S3FileSystem>
     private final String key;
     private final AmazonS3 client;
     private final String endpoint;
+    private final Properties properties;
+    private final S3ReadStatistics readStatistics = new S3ReadStatistics();
+    private final S3AttributesCache attributesCache;
+    private final S3BucketCache bucketCache;
+    private ExecutorService executor;
     private int cache;
 
     public S3FileSystem(S3FileSystemProvider provider, String key, AmazonS3 client, String endpoint) {
+        this(provider, key, client, endpoint, new Properties());
+    }
+
+    public S3FileSystem(S3FileSystemProvider provider, String key, AmazonS3 client, String endpoint, Properties properties) {
         this.provider = provider;
         this.key = key;
         this.client = client;
         this.endpoint = endpoint;
-        this.cache = 60000; // 1 minute cache for the s3Path
+        this.properties = properties;
+        this.cache = (int) getLongProperty(S3FileSystemProvider.ATTRIBUTES_CACHE_TTL, S3AttributesCache.DEFAULT_TTL);
+        this.attributesCache = new S3AttributesCache(cache, getLongProperty(S3FileSystemProvider.ATTRIBUTES_CACHE_SIZE, S3AttributesCache.DEFAULT_SIZE),
+                getLongProperty(S3FileSystemProvider.MISSING_CACHE_TTL, S3AttributesCache.DEFAULT_MISSING_TTL));
+        this.bucketCache = new S3BucketCache(client, getLongProperty(S3FileSystemProvider.BUCKET_CACHE_TTL, S3BucketCache.DEFAULT_TTL));
     }
 
     @Override
@@ -48,6 +66,10 @@ public class S3FileSystem extends FileSystem implements Comparable<S3FileSystem>
 
     @Override
     public void close() throws IOException {
+        synchronized (this) {
+            if (executor != null)
+                executor.shutdownNow();
+        }
         this.provider.close(this);
     }
 
@@ -79,6 +101,7 @@ public class S3FileSystem extends FileSystem implements Comparable<S3FileSystem>
     public Iterable<FileStore> getFileStores() {
         ImmutableList.Builder<FileStore> builder = ImmutableList.builder();
         for (Bucket bucket : client.listBuckets()) {
+            bucketCache.put(bucket);
             builder.add(new S3FileStore(this, bucket.getName()));
         }
         return builder.build();
@@ -100,7 +123,7 @@ public class S3FileSystem extends FileSystem implements Comparable<S3FileSystem>
 
     @Override
     public PathMatcher getPathMatcher(String syntaxAndPattern) {
-        throw new UnsupportedOperationException();
+        return new S3PathMatcher(syntaxAndPattern);
     }
 
     @Override
@@ -127,6 +150,74 @@ public class S3FileSystem extends FileSystem implements Comparable<S3FileSystem>
         return endpoint;
     }
 
+    /**
+     * get the properties used to create this fileSystem
+     *
+     * @return Properties never null
+     */
+    public Properties getProperties() {
+        return properties;
+    }
+
+    /**
+     * get a numeric setting of this fileSystem
+     *
+     * @param key          String the property name
+     * @param defaultValue long returned when the property is not present
+     * @return long
+     */
+    long getLongProperty(String key, long defaultValue) {
+        Object value = properties.get(key);
+        if (value == null)
+            return defaultValue;
+        return Long.parseLong(value.toString().trim());
+    }
+
+    /**
+     * get the executor used to run the S3 requests of this fileSystem concurrently.
+     * The pool is bounded by {@link com.upplication.s3fs.AmazonS3Factory#MAX_CONNECTIONS}
+     * so it never waits for a connection of the client.
+     *
+     * @return ExecutorService never null, created on the first call
+     */
+    synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            int threads = (int) getLongProperty(AmazonS3Factory.MAX_CONNECTIONS, ClientConfiguration.DEFAULT_MAX_CONNECTIONS);
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("s3fs-%d")
+                    .build());
+        }
+        return executor;
+    }
+
+    /**
+     * get the accumulated read counters of the channels opened with this fileSystem
+     *
+     * @return S3ReadStatistics never null
+     */
+    public S3ReadStatistics getReadStatistics() {
+        return readStatistics;
+    }
+
+    /**
+     * get the attributes resolved recently with this fileSystem
+     *
+     * @return S3AttributesCache never null
+     */
+    public S3AttributesCache getAttributesCache() {
+        return attributesCache;
+    }
+
+    /**
+     * get the metadata of the buckets resolved recently with this fileSystem
+     *
+     * @return S3BucketCache never null
+     */
+    public S3BucketCache getBucketCache() {
+        return bucketCache;
+    }
+
     public String[] key2Parts(String keyParts) {
         String[] parts = keyParts.split(PATH_SEPARATOR);
         String[] split = new String[parts.length];
@@ -21,6 +21,7 @@ import com.upplication.s3fs.util.S3Utils;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
@@ -67,11 +68,33 @@ public class S3FileSystemProvider extends FileSystemProvider {
 
     public static final String CHARSET_KEY = "s3fs_charset";
     public static final String AMAZON_S3_FACTORY_CLASS = "s3fs_amazon_s3_factory";
+    public static final String READ_AHEAD_MIN = "s3fs_read_ahead_min";
+    public static final String READ_AHEAD_MAX = "s3fs_read_ahead_max";
+    public static final String PARALLEL_DOWNLOAD_PARTS = "s3fs_parallel_download_parts";
+    public static final String PARALLEL_DOWNLOAD_PART_SIZE = "s3fs_parallel_download_part_size";
+    public static final int DEFAULT_PARALLEL_DOWNLOAD_PART_SIZE = 8 * 1024 * 1024;
+    public static final String MULTIPART_UPLOAD_PART_SIZE = "s3fs_multipart_upload_part_size";
+    public static final String PARALLEL_UPLOAD_PARTS = "s3fs_parallel_upload_parts";
+    public static final String ATTRIBUTES_CACHE_TTL = "s3fs_attributes_cache_ttl";
+    public static final String ATTRIBUTES_CACHE_SIZE = "s3fs_attributes_cache_size";
+    public static final String MISSING_CACHE_TTL = "s3fs_missing_cache_ttl";
+    public static final String PARALLEL_WALK_PREFIXES = "s3fs_parallel_walk_prefixes";
+    public static final String PARALLEL_DELETE_BATCHES = "s3fs_parallel_delete_batches";
+    public static final String PARALLEL_COPY_OBJECTS = "s3fs_parallel_copy_objects";
+    public static final String MULTIPART_COPY_THRESHOLD = "s3fs_multipart_copy_threshold";
+    public static final String MULTIPART_COPY_PART_SIZE = "s3fs_multipart_copy_part_size";
+    public static final String BUCKET_CACHE_TTL = "s3fs_bucket_cache_ttl";
+    public static final String IN_MEMORY_THRESHOLD = "s3fs_in_memory_threshold";
 
     private static final ConcurrentMap<String, S3FileSystem> fileSystems = new ConcurrentHashMap<>();
     private static final List<String> PROPS_TO_OVERLOAD = Arrays.asList(ACCESS_KEY, SECRET_KEY, REQUEST_METRIC_COLLECTOR_CLASS, CONNECTION_TIMEOUT, MAX_CONNECTIONS, MAX_ERROR_RETRY, PROTOCOL, PROXY_DOMAIN,
             PROXY_HOST, PROXY_PASSWORD, PROXY_PORT, PROXY_USERNAME, PROXY_WORKSTATION, SOCKET_SEND_BUFFER_SIZE_HINT, SOCKET_RECEIVE_BUFFER_SIZE_HINT, SOCKET_TIMEOUT,
-            USER_AGENT, AMAZON_S3_FACTORY_CLASS, SIGNER_OVERRIDE, PATH_STYLE_ACCESS);
+            USER_AGENT, AMAZON_S3_FACTORY_CLASS, SIGNER_OVERRIDE, PATH_STYLE_ACCESS, READ_AHEAD_MIN, READ_AHEAD_MAX,
+            PARALLEL_DOWNLOAD_PARTS, PARALLEL_DOWNLOAD_PART_SIZE, MULTIPART_UPLOAD_PART_SIZE,
+            PARALLEL_UPLOAD_PARTS, ATTRIBUTES_CACHE_TTL, ATTRIBUTES_CACHE_SIZE,
+            MISSING_CACHE_TTL, PARALLEL_WALK_PREFIXES, PARALLEL_DELETE_BATCHES,
+            PARALLEL_COPY_OBJECTS, MULTIPART_COPY_THRESHOLD, MULTIPART_COPY_PART_SIZE,
+            BUCKET_CACHE_TTL, IN_MEMORY_THRESHOLD);
 
     private S3Utils s3Utils = new S3Utils();
     private Cache cache = new Cache();
@@ -301,17 +324,23 @@ public class S3FileSystemProvider extends FileSystemProvider {
     }
 
     @Override
-    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter) throws IOException {
+    public DirectoryStream<Path> newDirectoryStream(Path dir, final DirectoryStream.Filter<? super Path> filter) throws IOException {
         final S3Path s3Path = toS3Path(dir);
         return new DirectoryStream<Path>() {
+
+            private S3Iterator iterator;
+
             @Override
             public void close() throws IOException {
-                // nothing to do here
+                // the next page prefetched would keep a connection of the executor
+                if (iterator != null)
+                    iterator.close();
             }
 
             @Override
             public Iterator<Path> iterator() {
-                return new S3Iterator(s3Path);
+                iterator = new S3Iterator(s3Path, filter);
+                return iterator;
             }
         };
     }
@@ -325,7 +354,18 @@ public class S3FileSystemProvider extends FileSystemProvider {
         Preconditions.checkArgument(!key.equals(""), "cannot create InputStream for root directory: %s", path);
 
         try {
-            S3Object object = s3Path.getFileSystem().getClient().getObject(s3Path.getFileStore().name(), key);
+            S3FileSystem fileSystem = s3Path.getFileSystem();
+            int parallelism = (int) fileSystem.getLongProperty(PARALLEL_DOWNLOAD_PARTS, 0);
+            if (parallelism > 1) {
+                int partSize = (int) fileSystem.getLongProperty(PARALLEL_DOWNLOAD_PART_SIZE, DEFAULT_PARALLEL_DOWNLOAD_PART_SIZE);
+                ObjectMetadata metadata = fileSystem.getClient().getObjectMetadata(s3Path.getFileStore().name(), key);
+                long size = metadata.getContentLength();
+                if (size > partSize)
+                    return new S3ParallelInputStream(fileSystem.getClient(), s3Path.getFileStore().name(), key, size, metadata.getETag(),
+                            partSize, parallelism, fileSystem.getExecutor());
+            }
+
+            S3Object object = fileSystem.getClient().getObject(s3Path.getFileStore().name(), key);
             InputStream res = object.getObjectContent();
 
             if (res == null)
@@ -340,6 +380,32 @@ public class S3FileSystemProvider extends FileSystemProvider {
         }
     }
 
+    /**
+     * Deviations from spec: The content is uploaded while it is written with a multipart upload,
+     * so the object is replaced when the stream is closed (APPEND is delegated to {@link #newByteChannel(Path, Set, FileAttribute[])})
+     * and CREATE_NEW is checked when the stream is closed, with a conditional PUT that fails if the object exists.
+     */
+    @Override
+    public OutputStream newOutputStream(Path path, OpenOption... options) throws IOException {
+        S3Path s3Path = toS3Path(path);
+        Set<OpenOption> opts = options.length == 0 ? ImmutableSet.<OpenOption>of(StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE) : ImmutableSet.copyOf(options);
+
+        if (opts.contains(StandardOpenOption.READ))
+            throw new IllegalArgumentException("READ not allowed");
+        if (opts.contains(StandardOpenOption.APPEND))
+            return super.newOutputStream(path, options);
+
+        Preconditions.checkArgument(!s3Path.getKey().equals(""), "cannot create OutputStream for root directory: %s", path);
+
+        if (opts.contains(StandardOpenOption.CREATE_NEW)) {
+            // checked by the conditional PUT on close
+            return new S3OutputStream(s3Path, true);
+        }
+        if (!opts.contains(StandardOpenOption.CREATE) && !exists(s3Path))
+            throw new NoSuchFileException(format("target not exists: %s", path));
+        return new S3OutputStream(s3Path);
+    }
+
     @Override
     public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
         S3Path s3Path = toS3Path(path);
@@ -368,20 +434,26 @@ public class S3FileSystemProvider extends FileSystemProvider {
         String bucketName = s3Path.getFileStore().name();
         if (bucket == null) {
             s3Path.getFileSystem().getClient().createBucket(bucketName);
+            s3Path.getFileSystem().getBucketCache().invalidate(bucketName);
         }
         // create the object as directory
         ObjectMetadata metadata = new ObjectMetadata();
         metadata.setContentLength(0);
         String directoryKey = s3Path.getKey().endsWith("/") ? s3Path.getKey() : s3Path.getKey() + "/";
         s3Path.getFileSystem().getClient().putObject(bucketName, directoryKey, new ByteArrayInputStream(new byte[0]), metadata);
+        s3Path.getFileSystem().getAttributesCache().invalidate(s3Path);
     }
 
     @Override
     public void delete(Path path) throws IOException {
         S3Path s3Path = toS3Path(path);
-        if (Files.notExists(s3Path))
+        S3BasicFileAttributes attrs;
+        try {
+            attrs = s3Utils.getS3FileAttributes(s3Path);
+        } catch (NoSuchFileException e) {
             throw new NoSuchFileException("the path: " + this + " not exists");
-        if (Files.isDirectory(s3Path) && Files.newDirectoryStream(s3Path).iterator().hasNext())
+        }
+        if (attrs.isDirectory() && Files.newDirectoryStream(s3Path).iterator().hasNext())
             throw new DirectoryNotEmptyException("the path: " + this + " is a directory and is not empty");
 
         String key = s3Path.getKey();
@@ -389,6 +461,21 @@ public class S3FileSystemProvider extends FileSystemProvider {
         s3Path.getFileSystem().getClient().deleteObject(bucketName, key);
         // we delete the two objects (sometimes exists the key '/' and sometimes not)
         s3Path.getFileSystem().getClient().deleteObject(bucketName, key + "/");
+        s3Path.getFileSystem().getAttributesCache().invalidate(s3Path);
+    }
+
+    /**
+     * Delete the path and all its descendants (if any) listing them once and deleting them with
+     * Multi-Object Delete requests of 1000 keys, at most {@link #PARALLEL_DELETE_BATCHES} at the same time.
+     * Deleting a tree with {@link Files#walkFileTree(Path, FileVisitor)} needs several requests per path.
+     *
+     * @param path Path file or directory to delete, if is a bucket all the objects of the bucket are deleted
+     * @throws NoSuchFileException    if the path doesnt exists
+     * @throws S3BatchDeleteException if some keys could not be deleted, with the error of every key
+     * @throws IOException            if a listing or a delete request fails
+     */
+    public void deleteRecursive(Path path) throws IOException {
+        new S3RecursiveDelete(toS3Path(path)).delete();
     }
 
     @Override
@@ -398,36 +485,86 @@ public class S3FileSystemProvider extends FileSystemProvider {
 
         S3Path s3Source = toS3Path(source);
         S3Path s3Target = toS3Path(target);
-        // TODO: implements support for copying directories
+        // Files.copy of a directory only creates an empty directory at the target, without the entries.
+        // In S3 the entries are objects under the key, so a directory is rejected instead of silently
+        // copying a part of it: the whole tree is copied with copyRecursive
+        Preconditions.checkArgument(!Files.isDirectory(source), "copying directories is not supported, use copyRecursive: %s", source);
+        Preconditions.checkArgument(!Files.isDirectory(target), "copying directories is not supported, use copyRecursive: %s", target);
 
-        Preconditions.checkArgument(!Files.isDirectory(source), "copying directories is not yet supported: %s", source);
-        Preconditions.checkArgument(!Files.isDirectory(target), "copying directories is not yet supported: %s", target);
+        ImmutableSet<CopyOption> actualOptions = ImmutableSet.copyOf(options);
+        verifySupportedOptions(EnumSet.of(StandardCopyOption.REPLACE_EXISTING), actualOptions);
+
+        // the attributes are already cached by the isDirectory check
+        long size = readAttributes(s3Source, BasicFileAttributes.class).size();
+        try {
+            // without REPLACE_EXISTING the copy is conditional, it fails if the target exists
+            new S3MultipartCopy(s3Source.getFileSystem()).copy(s3Source, size, s3Target, actualOptions.contains(StandardCopyOption.REPLACE_EXISTING));
+        } finally {
+            s3Target.getFileSystem().getAttributesCache().invalidate(s3Target);
+        }
+    }
+
+    /**
+     * Copy the path and all its descendants (if any) to the target with server-side copies,
+     * listing the source once and sending at most {@link #PARALLEL_COPY_OBJECTS} copies at the same time.
+     * The source and the target can be in different buckets of the same {@link S3FileSystem}.
+     *
+     * @param source  Path file or directory to copy
+     * @param target  Path where the source is copied, the descendants keep their relative keys
+     * @param options CopyOption only {@link StandardCopyOption#REPLACE_EXISTING} is supported: the existing objects
+     *                are replaced and the rest of objects of the target are kept
+     * @throws NoSuchFileException        if the source doesnt exists
+     * @throws FileAlreadyExistsException if the target exists and REPLACE_EXISTING is not set
+     * @throws IOException                if a listing or a copy fails, the objects already copied are not removed
+     */
+    public void copyRecursive(Path source, Path target, CopyOption... options) throws IOException {
+        if (isSameFile(source, target))
+            return;
 
+        S3Path s3Source = toS3Path(source);
+        S3Path s3Target = toS3Path(target);
         ImmutableSet<CopyOption> actualOptions = ImmutableSet.copyOf(options);
         verifySupportedOptions(EnumSet.of(StandardCopyOption.REPLACE_EXISTING), actualOptions);
+        // the copies would be listed again as descendants of the source
+        Preconditions.checkArgument(!s3Target.startsWith(s3Source), "cannot copy a directory into itself: %s", target);
 
         if (exists(s3Target) && !actualOptions.contains(StandardCopyOption.REPLACE_EXISTING)) {
             throw new FileAlreadyExistsException(format("target already exists: %s", target));
         }
-
-        String bucketNameOrigin = s3Source.getFileStore().name();
-        String keySource = s3Source.getKey();
-        String bucketNameTarget = s3Target.getFileStore().name();
-        String keyTarget = s3Target.getKey();
-        s3Source.getFileSystem()
-                .getClient().copyObject(
-                bucketNameOrigin,
-                keySource,
-                bucketNameTarget,
-                keyTarget);
+        new S3RecursiveCopy(s3Source, s3Target).copy();
     }
 
     @Override
     public void move(Path source, Path target, CopyOption... options) throws IOException {
         if (options != null && Arrays.asList(options).contains(StandardCopyOption.ATOMIC_MOVE))
             throw new AtomicMoveNotSupportedException(source.toString(), target.toString(), "Atomic not supported");
-        copy(source, target, options);
-        delete(source);
+        if (isSameFile(source, target))
+            return;
+        S3Path s3Source = toS3Path(source);
+        if (!Files.isDirectory(s3Source)) {
+            copy(source, target, options);
+            delete(source);
+            return;
+        }
+        moveDirectory(s3Source, toS3Path(target), options);
+    }
+
+    /**
+     * move the directory with all its descendants: the source is listed flat, the objects are copied in parallel
+     * and every source key is deleted in batches as soon as its copy succeeds. If a copy fails the source
+     * keys not copied yet are kept, so the move can be resumed with {@link StandardCopyOption#REPLACE_EXISTING}.
+     *
+     * @throws S3BatchDeleteException if some source keys could not be deleted
+     */
+    private void moveDirectory(S3Path source, S3Path target, CopyOption... options) throws IOException {
+        ImmutableSet<CopyOption> actualOptions = ImmutableSet.copyOf(options);
+        verifySupportedOptions(EnumSet.of(StandardCopyOption.REPLACE_EXISTING), actualOptions);
+        Preconditions.checkArgument(!target.startsWith(source), "cannot move a directory into itself: %s", target);
+
+        if (exists(target) && !actualOptions.contains(StandardCopyOption.REPLACE_EXISTING)) {
+            throw new FileAlreadyExistsException(format("target already exists: %s", target));
+        }
+        new S3RecursiveCopy(source, target, new S3RecursiveDelete(source)).copy();
     }
 
     @Override
@@ -486,7 +623,7 @@ public class S3FileSystemProvider extends FileSystemProvider {
                 s3Path.setFileAttributes(null);
                 return result;
             } else {
-                S3BasicFileAttributes attrs = s3Utils.getS3FileAttributes(s3Path);
+                S3BasicFileAttributes attrs = getCachedFileAttributes(s3Path, false);
                 s3Path.setFileAttributes(attrs);
                 return type.cast(attrs);
             }
@@ -498,7 +635,7 @@ public class S3FileSystemProvider extends FileSystemProvider {
                 return result;
             }
 
-            S3PosixFileAttributes attrs = s3Utils.getS3PosixFileAttributes(s3Path);
+            S3BasicFileAttributes attrs = getCachedFileAttributes(s3Path, true);
             s3Path.setFileAttributes(attrs);
             return type.cast(attrs);
         }
@@ -550,7 +687,7 @@ public class S3FileSystemProvider extends FileSystemProvider {
      * @return S3FileSystem never null
      */
     public S3FileSystem createFileSystem(URI uri, Properties props) {
-        return new S3FileSystem(this, getFileSystemKey(uri, props), getAmazonS3(uri, props), uri.getHost());
+        return new S3FileSystem(this, getFileSystemKey(uri, props), getAmazonS3(uri, props), uri.getHost(), props);
     }
 
     protected AmazonS3 getAmazonS3(URI uri, Properties props) {
@@ -603,13 +740,38 @@ public class S3FileSystemProvider extends FileSystemProvider {
     boolean exists(S3Path path) {
         S3Path s3Path = toS3Path(path);
         try {
-            s3Utils.getS3ObjectSummary(s3Path);
+            getCachedFileAttributes(s3Path, false);
             return true;
         } catch (NoSuchFileException e) {
             return false;
         }
     }
 
+    /**
+     * get the attributes from the cache of the fileSystem or request them if they are not cached
+     *
+     * @param s3Path S3Path mandatory
+     * @param posix  boolean true to get S3PosixFileAttributes
+     * @return S3BasicFileAttributes never null
+     * @throws NoSuchFileException if the path doesnt exists or was missing recently
+     */
+    private S3BasicFileAttributes getCachedFileAttributes(S3Path s3Path, boolean posix) throws NoSuchFileException {
+        S3AttributesCache attributesCache = s3Path.getFileSystem().getAttributesCache();
+        S3BasicFileAttributes attrs = attributesCache.get(s3Path);
+        if (attrs != null && (!posix || attrs instanceof S3PosixFileAttributes))
+            return attrs;
+        if (attributesCache.isMissing(s3Path))
+            throw new NoSuchFileException(s3Path.getFileStore().name() + S3Path.PATH_SEPARATOR + s3Path.getKey());
+        try {
+            attrs = posix ? s3Utils.getS3PosixFileAttributes(s3Path) : s3Utils.getS3FileAttributes(s3Path);
+        } catch (NoSuchFileException e) {
+            attributesCache.putMissing(s3Path);
+            throw e;
+        }
+        attributesCache.put(s3Path, attrs);
+        return attrs;
+    }
+
     public void close(S3FileSystem fileSystem) {
         if (fileSystem.getKey() != null && fileSystems.containsKey(fileSystem.getKey()))
             fileSystems.remove(fileSystem.getKey());
@@ -1,36 +1,54 @@
 package com.upplication.s3fs;
 
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import com.amazonaws.services.s3.model.ListObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.upplication.s3fs.attribute.S3BasicFileAttributes;
 import com.upplication.s3fs.util.S3Utils;
 
 /**
  * S3 iterator over folders at first level.
- * Future versions of this class should be return the elements
- * in a incremental way when the #next() method is called.
+ * <p>
+ * The first page is requested on the first call to {@link #hasNext()} or {@link #next()}, so creating
+ * the iterator doesnt cost a request. When a page is truncated the next one is requested in background
+ * (in the executor of the {@link S3FileSystem}) while the current one is consumed.
+ * </p>
  */
 public class S3Iterator implements Iterator<Path> {
     private S3FileSystem fileSystem;
     private S3FileStore fileStore;
     private String key;
     private List<S3Path> items = Lists.newArrayList();
-    private Set<S3Path> addedVirtualDirectories = Sets.newHashSet();
+    // same elements than items, to check the duplicates in constant time
+    private Set<S3Path> itemsAdded = Sets.newHashSet();
+    // keys (without end slash) of the directories already returned or discarded, in any page
+    private Set<String> directoriesSeen = Sets.newHashSet();
+    private ListObjectsRequest request;
     private ObjectListing current;
+    private Future<ObjectListing> nextPage;
+    private boolean prefetch = true;
+    private boolean closed;
     private int cursor; // index of next element to return
     private int size;
     private boolean incremental;
+    private DirectoryStream.Filter<? super Path> filter;
 
     private S3Utils s3Utils = new S3Utils();
 
@@ -43,28 +61,68 @@ public class S3Iterator implements Iterator<Path> {
     }
 
     public S3Iterator(S3FileStore fileStore, String key, boolean incremental) {
-        ListObjectsRequest listObjectsRequest = buildRequest(fileStore.name(), key, incremental);
+        this(fileStore, key, key, incremental);
+    }
+
+    /**
+     * @param fileStore   S3FileStore of the bucket
+     * @param key         String key of the directory listed, with end slash if not empty
+     * @param prefix      String prefix of the listing, starting with the key: only the children starting with it are listed
+     * @param incremental boolean true to list all the descendants, false only the first level
+     */
+    public S3Iterator(S3FileStore fileStore, String key, String prefix, boolean incremental) {
+        this(fileStore, key, prefix, incremental, null);
+    }
 
+    /**
+     * Iterator over the first level of the directory with only the elements accepted by the filter.
+     * The prefix of the listing is narrowed with the literal part of a {@link S3PathMatcher} glob or
+     * the name prefix of a {@link S3ObjectFilter}.
+     *
+     * @param path   S3Path directory
+     * @param filter DirectoryStream.Filter, null accepts all
+     */
+    public S3Iterator(S3Path path, DirectoryStream.Filter<? super Path> filter) {
+        this(path.getFileStore(), toDirectoryKey(path.getKey()), toListingPrefix(path, filter), false, filter);
+    }
+
+    /**
+     * @param fileStore   S3FileStore of the bucket
+     * @param key         String key of the directory listed, with end slash if not empty
+     * @param prefix      String prefix of the listing, starting with the key: only the children starting with it are listed
+     * @param incremental boolean true to list all the descendants, false only the first level
+     * @param filter      DirectoryStream.Filter, null accepts all. {@link S3ObjectFilter} and {@link S3PathMatcher}
+     *                    are evaluated with the key and the summary of the listing before creating the S3Path
+     */
+    public S3Iterator(S3FileStore fileStore, String key, String prefix, boolean incremental, DirectoryStream.Filter<? super Path> filter) {
+        this.request = buildRequest(fileStore.name(), prefix, key, incremental, null);
+        this.filter = filter;
         this.fileStore = fileStore;
         this.fileSystem = fileStore.getFileSystem();
         this.key = key;
-        this.current = fileSystem.getClient().listObjects(listObjectsRequest);
         this.incremental = incremental;
-        loadObjects();
     }
 
     @Override
     public boolean hasNext() {
-        return cursor != size || current.isTruncated();
+        // once closed only the elements already buffered are returned
+        if (closed)
+            return current != null && cursor != size;
+        if (current == null) {
+            this.current = fileSystem.getClient().listObjects(request);
+            loadObjects();
+        }
+        // a page can be empty after removing the duplicated directories
+        while (cursor == size && current.isTruncated()) {
+            this.current = nextPage != null ? waitNextPage() : fileSystem.getClient().listNextBatchOfObjects(current);
+            loadObjects();
+        }
+        return cursor != size;
     }
 
     @Override
     public S3Path next() {
-        if (cursor == size && current.isTruncated()) {
-            this.current = fileSystem.getClient().listNextBatchOfObjects(current);
-            loadObjects();
-        }
-        if (cursor == size)
+        if (!hasNext())
             throw new NoSuchElementException();
         return items.get(cursor++);
     }
@@ -74,81 +132,207 @@ public class S3Iterator implements Iterator<Path> {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * By default the next page is requested in the executor of the file system while the current one is consumed.
+     * A iterator consumed inside a task of the same executor must disable it: waiting a task queued behind
+     * the busy threads of the pool would never end.
+     *
+     * @param prefetch boolean false to request every page in the thread that consumes the iterator
+     */
+    void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Cancel the request of the next page in flight (if any) and stop listing, like a closed {@link DirectoryStream}
+     * the iterator only returns the elements already buffered.
+     */
+    void close() {
+        closed = true;
+        if (nextPage != null) {
+            nextPage.cancel(true);
+            nextPage = null;
+        }
+    }
+
+    /**
+     * @return int number of elements that {@link #next()} returns without a new request
+     */
+    int buffered() {
+        return current == null ? 0 : size - cursor;
+    }
+
     private void loadObjects() {
+        if (current.isTruncated() && prefetch)
+            prefetchNextPage();
         this.items.clear();
+        this.itemsAdded.clear();
         if (incremental)
             parseObjects();
         else
-            parseObjectListing(key, items, current);
+            parseObjectListing(key, current);
         this.size = items.size();
         this.cursor = 0;
     }
 
+    private void prefetchNextPage() {
+        final ObjectListing page = current;
+        this.nextPage = fileSystem.getExecutor().submit(new Callable<ObjectListing>() {
+            @Override
+            public ObjectListing call() throws Exception {
+                return fileSystem.getClient().listNextBatchOfObjects(page);
+            }
+        });
+    }
+
+    private ObjectListing waitNextPage() {
+        try {
+            return Uninterruptibles.getUninterruptibly(nextPage);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            nextPage = null;
+        }
+    }
+
     private void parseObjects() {
         for (final S3ObjectSummary objectSummary : current.getObjectSummaries()) {
             final String objectSummaryKey = objectSummary.getKey();
-            String[] keyParts = fileSystem.key2Parts(objectSummaryKey);
-            addParentPaths(keyParts);
-            S3Path path = new S3Path(fileSystem, "/" + fileStore.name(), keyParts);
-            if (!items.contains(path)) {
-                items.add(path);
+            addParentPaths(objectSummaryKey);
+            if (!accept(objectSummaryKey, objectSummary))
+                continue;
+            S3Path path = new S3Path(fileSystem, "/" + fileStore.name(), fileSystem.key2Parts(objectSummaryKey));
+            cacheAttributes(path, s3Utils.toS3FileAttributes(objectSummary, path.getKey()));
+            if (accept(path)) {
+                addItem(path);
+                // the object is returned, it is not added again as the virtual parent of the next keys
+                directoriesSeen.add(deleteExtraPath(objectSummaryKey));
             }
         }
     }
 
-    private void addParentPaths(String[] keyParts) {
-        if (keyParts.length <= 1)
-            return;
-        String[] subParts = Arrays.copyOf(keyParts, keyParts.length - 1);
-        List<S3Path> parentPaths = new ArrayList<>();
-        while (subParts.length > 0) {
-            S3Path path = new S3Path(fileSystem,  "/" + fileStore.name(), subParts);
-            String prefix = current.getPrefix();
-
-            String parentKey = path.getKey();
-            if (prefix.length() > parentKey.length() && prefix.contains(parentKey))
+    /**
+     * add the virtual directories between the prefix of the listing and the key.
+     * The keys are listed in lexicographic order, so the parents are usually the same
+     * than the previous key: the parents are walked up from the deepest one and the walk stops
+     * at the first one already seen, because its ancestors were seen before it.
+     * Only the parents added create a S3Path.
+     *
+     * @param objectKey String key of the object
+     */
+    private void addParentPaths(String objectKey) {
+        String prefix = current.getPrefix();
+        String key = deleteExtraPath(objectKey);
+        List<String> parentKeys = null;
+        // the keys start with the prefix: the parents shorter than the prefix are not listed
+        for (int end = key.lastIndexOf('/'); end > 0 && end >= prefix.length(); end = key.lastIndexOf('/', end - 1)) {
+            String parentKey = key.substring(0, end);
+            if (!directoriesSeen.add(parentKey))
                 break;
-            if (items.contains(path) || addedVirtualDirectories.contains(path)) {
-                subParts = Arrays.copyOf(subParts, subParts.length - 1);
-                continue;
-            }
-            parentPaths.add(path);
-            addedVirtualDirectories.add(path);
-            subParts = Arrays.copyOf(subParts, subParts.length - 1);
+            if (parentKeys == null)
+                parentKeys = new ArrayList<>();
+            parentKeys.add(parentKey);
+        }
+        if (parentKeys == null)
+            return;
+        for (String parentKey : Lists.reverse(parentKeys)) {
+            S3Path path = new S3Path(fileSystem, "/" + fileStore.name(), fileSystem.key2Parts(parentKey));
+            cacheAttributes(path, toDirectoryAttributes(parentKey));
+            if (accept(parentKey, null) && accept(path))
+                addItem(path);
         }
-        Collections.reverse(parentPaths);
-        items.addAll(parentPaths);
+    }
+
+    private void addItem(S3Path path) {
+        if (itemsAdded.add(path))
+            items.add(path);
     }
 
 
     /**
-     * add to the listPath the elements at the same level that s3Path
+     * add to the items the elements at the same level that s3Path
      *
-     * @param key      the uri to parse
-     * @param listPath List not null list to add
-     * @param current  ObjectListing to walk
+     * @param key     the uri to parse
+     * @param current ObjectListing to walk
      */
-    private void parseObjectListing(String key, List<S3Path> listPath, ObjectListing current) {
+    private void parseObjectListing(String key, ObjectListing current) {
         for (String commonPrefix : current.getCommonPrefixes()) {
-            if (!commonPrefix.equals("/")) {
-                listPath.add(new S3Path(fileSystem,  "/" + fileStore.name(), fileSystem.key2Parts(commonPrefix)));
+            if (!commonPrefix.equals("/") && accept(commonPrefix, null)) {
+                S3Path path = new S3Path(fileSystem,  "/" + fileStore.name(), fileSystem.key2Parts(commonPrefix));
+                cacheAttributes(path, toDirectoryAttributes(commonPrefix));
+                if (accept(path))
+                    addItem(path);
             }
         }
-        // TODO: figure our a way to efficiently preprocess commonPrefix basicFileAttributes
         for (final S3ObjectSummary objectSummary : current.getObjectSummaries()) {
             final String objectSummaryKey = objectSummary.getKey();
             // we only want the first level
             String immediateDescendantKey = getImmediateDescendant(key, objectSummaryKey);
-            if (immediateDescendantKey != null) {
+            if (immediateDescendantKey != null && accept(objectSummaryKey, objectSummary)) {
                 S3Path descendentPart = new S3Path(fileSystem,  "/" + fileStore.name(), fileSystem.key2Parts(immediateDescendantKey));
-                descendentPart.setFileAttributes(s3Utils.toS3FileAttributes(objectSummary, descendentPart.getKey()));
-                if (!listPath.contains(descendentPart)) {
-                    listPath.add(descendentPart);
-                }
+                cacheAttributes(descendentPart, s3Utils.toS3FileAttributes(objectSummary, descendentPart.getKey()));
+                if (accept(descendentPart))
+                    addItem(descendentPart);
             }
         }
     }
 
+    /**
+     * evaluate the filters that dont need the S3Path, so the rejected keys are not allocated
+     *
+     * @param key     String key listed
+     * @param summary S3ObjectSummary of the key, null for the common prefixes and the virtual directories
+     * @return false if the key is rejected by the filter
+     */
+    private boolean accept(String key, S3ObjectSummary summary) {
+        if (filter instanceof S3ObjectFilter) {
+            S3ObjectFilter objectFilter = (S3ObjectFilter) filter;
+            return summary == null ? objectFilter.acceptDirectory(key) : objectFilter.accept(summary);
+        }
+        if (filter instanceof S3PathMatcher)
+            return ((S3PathMatcher) filter).matches(fileStore.name(), key);
+        return true;
+    }
+
+    /**
+     * evaluate the rest of filters with the S3Path, the attributes of the listing are already attached
+     *
+     * @param path S3Path to return
+     * @return false if the path is rejected by the filter
+     */
+    private boolean accept(S3Path path) {
+        if (filter == null || filter instanceof S3ObjectFilter || filter instanceof S3PathMatcher)
+            return true;
+        try {
+            return filter.accept(path);
+        } catch (IOException e) {
+            throw new DirectoryIteratorException(e);
+        }
+    }
+
+    /**
+     * attach the attributes resolved by the listing to the path and to the cache of the fileSystem,
+     * so reading the attributes of the elements returned doesnt need a request per element.
+     *
+     * @param path       S3Path returned by this iterator
+     * @param attributes S3BasicFileAttributes of the path
+     */
+    private void cacheAttributes(S3Path path, S3BasicFileAttributes attributes) {
+        path.setFileAttributes(attributes);
+        fileSystem.getAttributesCache().put(path, attributes);
+    }
+
+    /**
+     * a common prefix or a parent of a key is a directory, maybe without object:
+     * the size is 0 and the last modified time is unknown
+     *
+     * @param key String key of the directory, with or without end slash
+     * @return S3BasicFileAttributes never null
+     */
+    private S3BasicFileAttributes toDirectoryAttributes(String key) {
+        return new S3BasicFileAttributes(key.endsWith("/") ? key : key + "/", null, 0, true, false);
+    }
+
     /**
      * The current #buildRequest() get all subdirectories and her content.
      * This method filter the keyChild and check if is a inmediate
@@ -180,13 +364,45 @@ public class S3Iterator implements Iterator<Path> {
     }
 
 
+    private static String toDirectoryKey(String key) {
+        return key.isEmpty() || key.endsWith("/") ? key : key + "/";
+    }
+
+    /**
+     * @return String prefix of the listing narrowed with the filter, only for the prefix:
+     * the marker is still the key of the directory so the name equal to the prefix is listed
+     */
+    private static String toListingPrefix(S3Path path, DirectoryStream.Filter<? super Path> filter) {
+        if (filter instanceof S3PathMatcher)
+            return ((S3PathMatcher) filter).getListingPrefix(path, true);
+        if (filter instanceof S3ObjectFilter)
+            return toDirectoryKey(path.getKey()) + ((S3ObjectFilter) filter).getNamePrefix();
+        return toDirectoryKey(path.getKey());
+    }
+
     ListObjectsRequest buildRequest(String bucketName, String key, boolean incremental) {
         return buildRequest(bucketName, key, incremental, null);
     }
 
     ListObjectsRequest buildRequest(String bucketName, String key, boolean incremental, Integer maxKeys) {
+        return buildRequest(bucketName, key, key, incremental, maxKeys);
+    }
+
+    /**
+     * The marker is exclusive: the object of the directory itself is skipped with the key of the directory,
+     * that is sorted before all its children. The prefix narrowed by a filter must not be the marker,
+     * the key equal to the prefix would not be listed.
+     *
+     * @param bucketName  String name of the bucket
+     * @param prefix      String prefix of the listing
+     * @param key         String key of the directory listed, with end slash if not empty
+     * @param incremental boolean true to list all the descendants, false only the first level
+     * @param maxKeys     Integer max keys per page, null for the default of S3
+     * @return ListObjectsRequest never null
+     */
+    ListObjectsRequest buildRequest(String bucketName, String prefix, String key, boolean incremental, Integer maxKeys) {
         if (incremental)
-            return new ListObjectsRequest(bucketName, key, null, null, maxKeys);
-        return new ListObjectsRequest(bucketName, key, key, "/", maxKeys);
+            return new ListObjectsRequest(bucketName, prefix, null, null, maxKeys);
+        return new ListObjectsRequest(bucketName, prefix, key, "/", maxKeys);
     }
 }
\ No newline at end of file
@@ -0,0 +1,239 @@
+package com.upplication.s3fs;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.SSEAlgorithm;
+import com.amazonaws.services.s3.model.SSEAwsKeyManagementParams;
+import com.upplication.s3fs.util.S3Utils;
+
+/**
+ * Server-side copy of a object with a multipart upload where every part is a range of the source
+ * copied with UploadPartCopy. A single copyObject request is limited to 5 GB and copies the bytes sequentially,
+ * the parts are copied in parallel in the executor of the {@link S3FileSystem}.
+ * <p>
+ * The objects greater than {@link S3FileSystemProvider#MULTIPART_COPY_THRESHOLD} bytes are copied in parts of
+ * {@link S3FileSystemProvider#MULTIPART_COPY_PART_SIZE} bytes, at most {@link S3FileSystemProvider#PARALLEL_COPY_OBJECTS}
+ * at the same time. The part size is kept between the 5 MB and 5 GB allowed by S3, and raised when needed so the object
+ * fits in 10000 parts. The metadata of the source is kept: the HTTP headers, the user metadata, the server side
+ * encryption (except with customer keys) and the storage class.
+ * </p>
+ * <p>
+ * Without replace the copy (or the completion of the multipart copy) is conditional with <code>If-None-Match: *</code>,
+ * so it fails with {@link FileAlreadyExistsException} if the target exists, without checking it before.
+ * The parts are copied with the ETag of the source as condition: if the source is replaced during the copy
+ * it fails instead of mixing the content of both versions.
+ * </p>
+ * <p>
+ * The parts are waited in the caller thread, so it must not be called from a task of the executor.
+ * </p>
+ */
+class S3MultipartCopy {
+
+    static final long DEFAULT_THRESHOLD = 128 * 1024 * 1024;
+    static final long DEFAULT_PART_SIZE = 128 * 1024 * 1024;
+    /**
+     * max size of a copy with a single request
+     */
+    static final long MAX_SINGLE_COPY_SIZE = 5L * 1024 * 1024 * 1024;
+
+    private final S3FileSystem fileSystem;
+    private final AmazonS3 client;
+    private final long threshold;
+    private final long partSize;
+    private final int parallelism;
+
+    S3MultipartCopy(S3FileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+        this.client = fileSystem.getClient();
+        this.threshold = Math.min(MAX_SINGLE_COPY_SIZE, fileSystem.getLongProperty(S3FileSystemProvider.MULTIPART_COPY_THRESHOLD, DEFAULT_THRESHOLD));
+        this.partSize = Math.min(S3OutputStream.MAX_PART_SIZE,
+                Math.max(S3OutputStream.MIN_PART_SIZE, fileSystem.getLongProperty(S3FileSystemProvider.MULTIPART_COPY_PART_SIZE, DEFAULT_PART_SIZE)));
+        long connections = fileSystem.getLongProperty(AmazonS3Factory.MAX_CONNECTIONS, ClientConfiguration.DEFAULT_MAX_CONNECTIONS);
+        this.parallelism = (int) Math.max(1, fileSystem.getLongProperty(S3FileSystemProvider.PARALLEL_COPY_OBJECTS, connections));
+    }
+
+    /**
+     * @param size long size of the source object
+     * @return true if the object must be copied in parts
+     */
+    boolean isMultipart(long size) {
+        return size > threshold;
+    }
+
+    /**
+     * copy with a single copyObject request or in parts if the object is greater than the threshold
+     *
+     * @param source S3Path object to copy
+     * @param size   long size of the source object to choose between a single request or parts,
+     *               the parts are computed with the size of a new HEAD request
+     * @param target S3Path where the object is copied
+     * @throws IOException if the copy fails, the parts already copied are discarded
+     */
+    void copy(S3Path source, long size, S3Path target) throws IOException {
+        copy(source, size, target, true);
+    }
+
+    /**
+     * @param replace boolean false to fail if the target already exists
+     * @throws FileAlreadyExistsException if replace is false and the target exists
+     * @see #copy(S3Path, long, S3Path)
+     */
+    void copy(S3Path source, long size, S3Path target, boolean replace) throws IOException {
+        copy(source.getFileStore().name(), source.getKey(), size, target.getFileStore().name(), target.getKey(), replace);
+    }
+
+    void copy(String sourceBucket, String sourceKey, long size, String targetBucket, String targetKey) throws IOException {
+        copy(sourceBucket, sourceKey, size, targetBucket, targetKey, true);
+    }
+
+    private void copy(String sourceBucket, String sourceKey, long size, String targetBucket, String targetKey, boolean replace) throws IOException {
+        if (!isMultipart(size)) {
+            try {
+                if (replace)
+                    client.copyObject(sourceBucket, sourceKey, targetBucket, targetKey);
+                else
+                    client.copyObject(S3Utils.ifNotExists(new CopyObjectRequest(sourceBucket, sourceKey, targetBucket, targetKey)));
+            } catch (AmazonClientException e) {
+                if (S3Utils.isPreconditionFailed(e))
+                    throw new FileAlreadyExistsException(format("target already exists: %s/%s", targetBucket, targetKey));
+                throw new IOException(format("Cannot copy %s/%s to %s/%s", sourceBucket, sourceKey, targetBucket, targetKey), e);
+            }
+            return;
+        }
+
+        String uploadId = null;
+        Deque<Future<PartETag>> inFlight = new ArrayDeque<>();
+        try {
+            ObjectMetadata sourceMetadata = client.getObjectMetadata(sourceBucket, sourceKey);
+            uploadId = client.initiateMultipartUpload(createRequest(targetBucket, targetKey, sourceMetadata)).getUploadId();
+
+            // the size of the HEAD, the size of the caller can be a stale cached value
+            long length = sourceMetadata.getContentLength();
+            // the parts can not be smaller than the part size, the last one is the rest
+            long partSize = Math.max(this.partSize, (length + S3OutputStream.MAX_PARTS - 1) / S3OutputStream.MAX_PARTS);
+            List<PartETag> partETags = new ArrayList<>();
+            int partNumber = 1;
+            for (long position = 0; position < length; position += partSize) {
+                while (inFlight.size() >= parallelism)
+                    partETags.add(waitFor(inFlight.poll(), sourceBucket, sourceKey));
+                final CopyPartRequest request = new CopyPartRequest()
+                        .withSourceBucketName(sourceBucket)
+                        .withSourceKey(sourceKey)
+                        .withDestinationBucketName(targetBucket)
+                        .withDestinationKey(targetKey)
+                        .withUploadId(uploadId)
+                        .withPartNumber(partNumber++)
+                        .withFirstByte(position)
+                        .withLastByte(Math.min(length, position + partSize) - 1);
+                // all the parts are copied from the same version of the source
+                if (sourceMetadata.getETag() != null)
+                    request.withMatchingETagConstraint(sourceMetadata.getETag());
+                final String source = sourceBucket + "/" + sourceKey;
+                inFlight.add(fileSystem.getExecutor().submit(new Callable<PartETag>() {
+                    @Override
+                    public PartETag call() throws Exception {
+                        return copyPart(request, source);
+                    }
+                }));
+            }
+            while (!inFlight.isEmpty())
+                partETags.add(waitFor(inFlight.poll(), sourceBucket, sourceKey));
+
+            CompleteMultipartUploadRequest request = new CompleteMultipartUploadRequest(targetBucket, targetKey, uploadId, partETags);
+            client.completeMultipartUpload(replace ? request : S3Utils.ifNotExists(request));
+            uploadId = null;
+        } catch (AmazonClientException e) {
+            if (S3Utils.isPreconditionFailed(e))
+                throw new FileAlreadyExistsException(format("target already exists: %s/%s", targetBucket, targetKey));
+            throw new IOException(format("Cannot copy %s/%s to %s/%s", sourceBucket, sourceKey, targetBucket, targetKey), e);
+        } finally {
+            for (Future<PartETag> part : inFlight)
+                part.cancel(true);
+            if (uploadId != null)
+                abort(targetBucket, targetKey, uploadId);
+        }
+    }
+
+    /**
+     * Copy the metadata of the source that S3 doesnt copy with the parts. Only the headers that can be sent
+     * are copied: the response headers like the length or the ETag are not valid in the request.
+     *
+     * @param bucket String target bucket
+     * @param key    String target key
+     * @param source ObjectMetadata of the source object
+     * @return InitiateMultipartUploadRequest with the metadata of the source
+     */
+    static InitiateMultipartUploadRequest createRequest(String bucket, String key, ObjectMetadata source) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        // the raw metadata are sent as headers: a null value is not allowed
+        for (String header : Arrays.asList(Headers.CONTENT_TYPE, Headers.CONTENT_ENCODING, Headers.CONTENT_DISPOSITION,
+                Headers.CONTENT_LANGUAGE, Headers.CACHE_CONTROL)) {
+            Object value = source.getRawMetadataValue(header);
+            if (value != null)
+                metadata.setHeader(header, value);
+        }
+        if (source.getHttpExpiresDate() != null)
+            metadata.setHttpExpiresDate(source.getHttpExpiresDate());
+        metadata.setUserMetadata(source.getUserMetadata());
+        InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(bucket, key, metadata);
+        if (SSEAlgorithm.KMS.getAlgorithm().equals(source.getSSEAlgorithm()))
+            request.setSSEAwsKeyManagementParams(source.getSSEAwsKmsKeyId() == null ? new SSEAwsKeyManagementParams()
+                    : new SSEAwsKeyManagementParams(source.getSSEAwsKmsKeyId()));
+        else if (source.getSSEAlgorithm() != null)
+            metadata.setSSEAlgorithm(source.getSSEAlgorithm());
+        if (source.getStorageClass() != null)
+            request.withStorageClass(source.getStorageClass());
+        return request;
+    }
+
+    private PartETag copyPart(CopyPartRequest request, String source) throws IOException {
+        CopyPartResult result = client.copyPart(request);
+        // null if the ETag doesnt match
+        if (result == null)
+            throw new IOException(format("The source was modified while copying: %s", source));
+        return result.getPartETag();
+    }
+
+    private PartETag waitFor(Future<PartETag> part, String sourceBucket, String sourceKey) throws IOException {
+        try {
+            return part.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(format("Interrupted copying %s/%s", sourceBucket, sourceKey));
+        } catch (ExecutionException e) {
+            throw new IOException(format("Cannot copy part of %s/%s", sourceBucket, sourceKey), e.getCause());
+        }
+    }
+
+    private void abort(String bucket, String key, String uploadId) {
+        try {
+            client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+        } catch (AmazonClientException e) {
+            // the parts will be removed by the bucket lifecycle rules (if any)
+        }
+    }
+}
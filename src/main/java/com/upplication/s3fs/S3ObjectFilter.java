@@ -0,0 +1,120 @@
+package com.upplication.s3fs;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Date;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Filter for {@link Files#newDirectoryStream(Path, DirectoryStream.Filter)} evaluated with the
+ * {@link S3ObjectSummary} of the listing, before the S3Path of every key is created.
+ * <p>
+ * The conditions are the name prefix and suffix, a size range and a last modified range. All of them must be
+ * satisfied. The directories have size 0 and an unknown last modified time, so they are only accepted
+ * if the filter doesnt have a min size or a last modified range.
+ * </p>
+ * <p>
+ * The name prefix is sent as the prefix of the listing, so the keys that doesnt start with it are not even listed.
+ * </p>
+ */
+public class S3ObjectFilter implements DirectoryStream.Filter<Path> {
+
+    private String namePrefix = "";
+    private String nameSuffix = "";
+    private long minSize = 0;
+    private long maxSize = Long.MAX_VALUE;
+    private Date modifiedFrom;
+    private Date modifiedTo;
+
+    /**
+     * @param namePrefix String the file name must start with, mandatory
+     * @return this
+     */
+    public S3ObjectFilter withNamePrefix(String namePrefix) {
+        this.namePrefix = namePrefix;
+        return this;
+    }
+
+    /**
+     * @param nameSuffix String the file name must end with, mandatory
+     * @return this
+     */
+    public S3ObjectFilter withNameSuffix(String nameSuffix) {
+        this.nameSuffix = nameSuffix;
+        return this;
+    }
+
+    /**
+     * @param minSize long min size in bytes, inclusive
+     * @param maxSize long max size in bytes, inclusive
+     * @return this
+     */
+    public S3ObjectFilter withSize(long minSize, long maxSize) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * @param from Date inclusive, null without lower limit
+     * @param to   Date exclusive, null without upper limit
+     * @return this
+     */
+    public S3ObjectFilter withLastModified(Date from, Date to) {
+        this.modifiedFrom = from;
+        this.modifiedTo = to;
+        return this;
+    }
+
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    /**
+     * @param summary S3ObjectSummary of the listing
+     * @return true if the object is accepted
+     */
+    public boolean accept(S3ObjectSummary summary) {
+        if (summary.getKey().endsWith("/"))
+            return acceptDirectory(summary.getKey());
+        return acceptName(summary.getKey()) && accept(summary.getSize(), summary.getLastModified());
+    }
+
+    /**
+     * @param key String key of a common prefix or a virtual directory, with or without end slash
+     * @return true if the directory is accepted
+     */
+    public boolean acceptDirectory(String key) {
+        return acceptName(key) && accept(0, null);
+    }
+
+    @Override
+    public boolean accept(Path entry) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+        String name = entry.getFileName() == null ? "" : entry.getFileName().toString();
+        if (attributes.isDirectory())
+            return acceptDirectory(name);
+        Date lastModified = attributes.lastModifiedTime() == null ? null : new Date(attributes.lastModifiedTime().toMillis());
+        return acceptName(name) && accept(attributes.size(), lastModified);
+    }
+
+    private boolean acceptName(String key) {
+        String name = key.endsWith("/") ? key.substring(0, key.length() - 1) : key;
+        name = name.substring(name.lastIndexOf('/') + 1);
+        return name.startsWith(namePrefix) && name.endsWith(nameSuffix);
+    }
+
+    private boolean accept(long size, Date lastModified) {
+        if (size < minSize || size > maxSize)
+            return false;
+        if (modifiedFrom == null && modifiedTo == null)
+            return true;
+        return lastModified != null
+                && (modifiedFrom == null || !lastModified.before(modifiedFrom))
+                && (modifiedTo == null || lastModified.before(modifiedTo));
+    }
+}
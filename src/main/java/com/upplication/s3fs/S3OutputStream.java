@@ -0,0 +1,550 @@
+package com.upplication.s3fs;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.tika.Tika;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.google.common.base.Preconditions;
+import com.upplication.s3fs.util.S3Utils;
+
+/**
+ * OutputStream that uploads the content to S3 while it is written, without a local temp file.
+ * <p>
+ * The content is buffered in parts of {@link S3FileSystemProvider#MULTIPART_UPLOAD_PART_SIZE} bytes.
+ * When the first part is full a multipart upload is initiated and every part is uploaded as soon as
+ * it is completed. Content smaller than a part is uploaded with a single PUT on close.
+ * If something fails the multipart upload is aborted and the object is not created.
+ * </p>
+ * <p>
+ * With {@link S3FileSystemProvider#PARALLEL_UPLOAD_PARTS} greater than 1 the parts are uploaded
+ * concurrently in the executor of the {@link S3FileSystem}. The parts are buffered in a pool of at most
+ * <code>parallelism + 1</code> heap buffers reused for the whole upload, and {@link #write(byte[], int, int)}
+ * blocks while all of them are in flight. A buffer is only allocated when it is needed and grows up to the part size
+ * while it is filled, so a small object only uses the memory of its content.
+ * </p>
+ * <p>
+ * S3 requires parts of at least 5 MB (except the last one) and allows a max of 10000 parts per object.
+ * The part size is doubled every 1000 parts (up to the 2 GB of a heap buffer), so the 10000 parts are enough
+ * for objects of several TB. The write fails if the 10000 parts are exceeded anyway.
+ * </p>
+ * <p>
+ * The buffers of the pool never take more than <code>(parallelism + 1) * part size</code> bytes in total
+ * (with the configured part size): when the parts are doubled the free buffers are released before a buffer grows,
+ * so less parts are uploaded at the same time. Only a single part greater than that limit is kept in memory,
+ * the upper bound is the greatest of the limit and the size of the current part.
+ * </p>
+ * <p>
+ * A stream created with <code>createNew</code> makes the final PUT (or the completion of the multipart upload)
+ * conditional with <code>If-None-Match: *</code>, so it fails with {@link FileAlreadyExistsException} on close
+ * if the object exists, even if it was created by other writer while the content was written.
+ * </p>
+ * <p>
+ * A stream that appends to a existing object of at least {@link #MIN_PART_SIZE} bytes doesnt download it:
+ * the object is copied server-side with UploadPartCopy requests as the first parts of the multipart upload
+ * and the content written is uploaded as the next parts, so only the appended bytes are sent.
+ * The copy is conditional on the ETag of the object, the append fails if the object is replaced meanwhile.
+ * Nothing is uploaded if nothing is written.
+ * </p>
+ */
+public class S3OutputStream extends OutputStream {
+
+    public static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+    /**
+     * min size of every part except the last one
+     */
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+    /**
+     * max size of a part
+     */
+    static final long MAX_PART_SIZE = 5L * 1024 * 1024 * 1024;
+    /**
+     * max number of parts of a multipart upload
+     */
+    static final int MAX_PARTS = 10000;
+    /**
+     * max bytes used to detect the content type
+     */
+    private static final int CONTENT_TYPE_DETECT_LENGTH = 64 * 1024;
+    /**
+     * capacity of a new buffer, doubled while it is filled until the part size
+     */
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    /**
+     * max capacity of a heap buffer, and so of the parts uploaded by the stream
+     */
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+    /**
+     * parts uploaded before the part size is doubled
+     */
+    private static final int PARTS_PER_GROWTH = 1000;
+
+    private final S3Path path;
+    private final AmazonS3 client;
+    private final String bucket;
+    private final String key;
+    private final int partSize;
+    private final int parallelism;
+    private final boolean createNew;
+    /**
+     * metadata of the existing object to append to, null if the content replaces the object
+     */
+    private final ObjectMetadata appendTo;
+
+    private final BlockingQueue<ByteBuffer> freeBuffers = new LinkedBlockingQueue<>();
+    private final Deque<Future<PartETag>> inFlight = new ArrayDeque<>();
+    private final List<PartETag> partETags = new ArrayList<>();
+    private int allocatedBuffers;
+    /**
+     * capacity of all the buffers of the pool: free, in flight and the current one
+     */
+    private long allocatedBytes;
+    private int partCount;
+    private ByteBuffer current;
+    private String uploadId;
+    private boolean closed;
+
+    /**
+     * Create a new object (or replace the existing one) in the path
+     *
+     * @param path S3Path where the content is uploaded, mandatory
+     */
+    public S3OutputStream(S3Path path) {
+        this(path, false);
+    }
+
+    /**
+     * @param path      S3Path where the content is uploaded, mandatory
+     * @param createNew boolean true to fail on close if the object already exists
+     */
+    public S3OutputStream(S3Path path, boolean createNew) {
+        this(path, createNew, null);
+    }
+
+    /**
+     * Append the content to the existing object in the path
+     *
+     * @param path     S3Path of the object, mandatory
+     * @param appendTo ObjectMetadata of the existing object (with the length and the ETag), at least {@link #MIN_PART_SIZE} bytes
+     */
+    S3OutputStream(S3Path path, ObjectMetadata appendTo) {
+        this(path, false, appendTo);
+    }
+
+    private S3OutputStream(S3Path path, boolean createNew, ObjectMetadata appendTo) {
+        Preconditions.checkArgument(appendTo == null || appendTo.getContentLength() >= MIN_PART_SIZE,
+                "the object to append must have at least %s bytes: %s", MIN_PART_SIZE, path);
+        long partSize = path.getFileSystem().getLongProperty(S3FileSystemProvider.MULTIPART_UPLOAD_PART_SIZE, DEFAULT_PART_SIZE);
+        Preconditions.checkArgument(partSize >= MIN_PART_SIZE && partSize <= MAX_BUFFER_SIZE,
+                "%s must be between %s and %s bytes: %s", S3FileSystemProvider.MULTIPART_UPLOAD_PART_SIZE, MIN_PART_SIZE, MAX_BUFFER_SIZE, partSize);
+        this.path = path;
+        this.createNew = createNew;
+        this.appendTo = appendTo;
+        this.client = path.getFileSystem().getClient();
+        this.bucket = path.getFileStore().name();
+        this.key = path.getKey();
+        this.partSize = (int) partSize;
+        this.parallelism = (int) Math.max(1, path.getFileSystem().getLongProperty(S3FileSystemProvider.PARALLEL_UPLOAD_PARTS, 1));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (current == null) {
+                current = acquireBuffer();
+            } else if (!current.hasRemaining() && current.capacity() < partSize()) {
+                current = grow(current);
+            } else if (!current.hasRemaining()) {
+                uploadCurrent();
+                current = acquireBuffer();
+            }
+            int count = Math.min(len, current.remaining());
+            current.put(b, off, count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Nothing to do: S3 objects can not be partially written, the content is uploaded when a part is full or on close.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            if (uploadId == null && appendTo == null) {
+                putObject();
+            } else if (uploadId != null || (current != null && current.position() > 0)) {
+                if (current != null && current.position() > 0)
+                    uploadCurrent();
+                while (!inFlight.isEmpty())
+                    partETags.add(waitFor(inFlight.poll()));
+                completeMultipartUpload();
+            }
+        } finally {
+            path.getFileSystem().getAttributesCache().invalidate(path);
+            current = null;
+            freeBuffers.clear();
+        }
+    }
+
+    /**
+     * get a free buffer, allocating a new (small) one if the pool is not full yet
+     * or waiting until an upload in flight releases its buffer.
+     *
+     * @return ByteBuffer cleared and ready to be filled
+     * @throws IOException if any of the uploads finished failed
+     */
+    private ByteBuffer acquireBuffer() throws IOException {
+        collectCompleted();
+        ByteBuffer buffer = freeBuffers.poll();
+        if (buffer == null) {
+            int capacity = Math.min(partSize(), INITIAL_BUFFER_SIZE);
+            if (allocatedBuffers == 0 || (allocatedBuffers < parallelism + 1 && allocatedBytes + capacity <= memoryLimit())) {
+                allocatedBuffers++;
+                allocatedBytes += capacity;
+                return ByteBuffer.allocate(capacity);
+            }
+            buffer = takeFreeBuffer();
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * wait until an upload in flight releases its buffer, there must be buffers in flight or free
+     */
+    private ByteBuffer takeFreeBuffer() throws IOException {
+        ByteBuffer buffer;
+        try {
+            buffer = freeBuffers.take();
+        } catch (InterruptedException e) {
+            abort();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(format("Interrupted writing: %s", path));
+        }
+        collectCompleted();
+        return buffer;
+    }
+
+    /**
+     * @return long max bytes of all the buffers: the buffers of the configured part size,
+     * or a single part if the part size has grown more
+     */
+    private long memoryLimit() {
+        return Math.max((long) (parallelism + 1) * partSize, partSize());
+    }
+
+    /**
+     * @return int size of the next part: the configured part size doubled every {@link #PARTS_PER_GROWTH} parts
+     */
+    private int partSize() {
+        long size = (long) partSize << Math.min(32, partCount / PARTS_PER_GROWTH);
+        return (int) Math.min(MAX_BUFFER_SIZE, size);
+    }
+
+    /**
+     * The other buffers of the pool are released until the grown buffer fits in the memory limit.
+     *
+     * @param buffer ByteBuffer full, the current one
+     * @return ByteBuffer with the double of capacity (up to the part size) and the content of the buffer
+     * @throws IOException if any of the uploads finished failed
+     */
+    private ByteBuffer grow(ByteBuffer buffer) throws IOException {
+        int capacity = (int) Math.min(partSize(), 2L * buffer.capacity());
+        while (allocatedBuffers > 1 && allocatedBytes + capacity - buffer.capacity() > memoryLimit()) {
+            allocatedBytes -= takeFreeBuffer().capacity();
+            allocatedBuffers--;
+        }
+        allocatedBytes += capacity - buffer.capacity();
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    /**
+     * upload the current buffer as the next part, in the caller thread or in background
+     */
+    private void uploadCurrent() throws IOException {
+        if (partCount >= MAX_PARTS) {
+            abort();
+            throw new IOException(format("Cannot upload more than %s parts, increase %s: %s", MAX_PARTS,
+                    S3FileSystemProvider.MULTIPART_UPLOAD_PART_SIZE, path));
+        }
+        if (uploadId == null)
+            initiateMultipartUpload();
+        final ByteBuffer part = current;
+        final int partNumber = ++partCount;
+        current = null;
+        part.flip();
+        if (parallelism > 1) {
+            ExecutorService executor = path.getFileSystem().getExecutor();
+            inFlight.add(executor.submit(new Callable<PartETag>() {
+                @Override
+                public PartETag call() throws Exception {
+                    try {
+                        return uploadPart(part, partNumber);
+                    } finally {
+                        freeBuffers.add(part);
+                    }
+                }
+            }));
+        } else {
+            try {
+                partETags.add(uploadPart(part, partNumber));
+            } catch (AmazonClientException e) {
+                abort();
+                throw new IOException(format("Cannot upload part %s of file: %s", partNumber, path), e);
+            } finally {
+                freeBuffers.add(part);
+            }
+        }
+    }
+
+    private PartETag uploadPart(ByteBuffer part, int partNumber) {
+        UploadPartRequest request = new UploadPartRequest()
+                .withBucketName(bucket)
+                .withKey(key)
+                .withUploadId(uploadId)
+                .withPartNumber(partNumber)
+                .withPartSize(part.remaining())
+                .withInputStream(new ByteBufferInputStream(part));
+        return client.uploadPart(request).getPartETag();
+    }
+
+    /**
+     * collect in order the parts already uploaded
+     */
+    private void collectCompleted() throws IOException {
+        while (!inFlight.isEmpty() && inFlight.peek().isDone())
+            partETags.add(waitFor(inFlight.poll()));
+    }
+
+    private PartETag waitFor(Future<PartETag> upload) throws IOException {
+        try {
+            return upload.get();
+        } catch (InterruptedException e) {
+            abort();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(format("Interrupted writing: %s", path));
+        } catch (ExecutionException e) {
+            abort();
+            throw new IOException(format("Cannot upload part of file: %s", path), e.getCause());
+        }
+    }
+
+    private void initiateMultipartUpload() throws IOException {
+        try {
+            InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(bucket, key, createMetadata());
+            uploadId = client.initiateMultipartUpload(request).getUploadId();
+        } catch (AmazonClientException e) {
+            abort();
+            throw new IOException(format("Cannot write file: %s", path), e);
+        }
+        if (appendTo != null)
+            copyExisting();
+    }
+
+    /**
+     * copy the existing object as the first parts, in parts of the same size up to {@link #MAX_PART_SIZE}
+     */
+    private void copyExisting() throws IOException {
+        long size = appendTo.getContentLength();
+        long parts = (size + MAX_PART_SIZE - 1) / MAX_PART_SIZE;
+        long length = (size + parts - 1) / parts;
+        for (long start = 0; start < size; start += length) {
+            final CopyPartRequest request = new CopyPartRequest()
+                    .withSourceBucketName(bucket)
+                    .withSourceKey(key)
+                    .withDestinationBucketName(bucket)
+                    .withDestinationKey(key)
+                    .withUploadId(uploadId)
+                    .withPartNumber(++partCount)
+                    .withFirstByte(start)
+                    .withLastByte(Math.min(start + length, size) - 1)
+                    .withMatchingETagConstraint(appendTo.getETag());
+            if (parallelism > 1) {
+                inFlight.add(path.getFileSystem().getExecutor().submit(new Callable<PartETag>() {
+                    @Override
+                    public PartETag call() throws Exception {
+                        return copyPart(request);
+                    }
+                }));
+            } else {
+                try {
+                    partETags.add(copyPart(request));
+                } catch (AmazonClientException | IOException e) {
+                    abort();
+                    throw new IOException(format("Cannot copy the existing content of file: %s", path), e);
+                }
+            }
+        }
+    }
+
+    private PartETag copyPart(CopyPartRequest request) throws IOException {
+        CopyPartResult result = client.copyPart(request);
+        // null if the ETag doesnt match
+        if (result == null)
+            throw new IOException(format("The file was modified while appending: %s", path));
+        return result.getPartETag();
+    }
+
+    private void putObject() throws IOException {
+        ObjectMetadata metadata = createMetadata();
+        ByteBuffer content = current == null ? ByteBuffer.allocate(0) : (ByteBuffer) current.flip();
+        metadata.setContentLength(content.remaining());
+        try {
+            PutObjectRequest request = new PutObjectRequest(bucket, key, new ByteBufferInputStream(content), metadata);
+            client.putObject(createNew ? S3Utils.ifNotExists(request) : request);
+        } catch (AmazonClientException e) {
+            if (S3Utils.isPreconditionFailed(e))
+                throw new FileAlreadyExistsException(format("target already exists: %s", path));
+            throw new IOException(format("Cannot write file: %s", path), e);
+        }
+    }
+
+    private void completeMultipartUpload() throws IOException {
+        try {
+            CompleteMultipartUploadRequest request = new CompleteMultipartUploadRequest(bucket, key, uploadId, partETags);
+            client.completeMultipartUpload(createNew ? S3Utils.ifNotExists(request) : request);
+        } catch (AmazonClientException e) {
+            abort();
+            if (S3Utils.isPreconditionFailed(e))
+                throw new FileAlreadyExistsException(format("target already exists: %s", path));
+            throw new IOException(format("Cannot complete the upload of file: %s", path), e);
+        }
+    }
+
+    /**
+     * cancel the parts in flight and abort the multipart upload (if any) so the uploaded parts are discarded
+     */
+    private void abort() {
+        closed = true;
+        for (Future<PartETag> upload : inFlight)
+            upload.cancel(true);
+        inFlight.clear();
+        if (uploadId == null)
+            return;
+        try {
+            client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+        } catch (AmazonClientException e) {
+            // the parts will be removed by the bucket lifecycle rules (if any)
+        }
+    }
+
+    /**
+     * the content type is detected with the name and the first bytes buffered,
+     * or copied from the object to append to
+     */
+    private ObjectMetadata createMetadata() {
+        ObjectMetadata metadata = new ObjectMetadata();
+        if (appendTo != null) {
+            // the appended content keeps the type and the user metadata of the object
+            metadata.setContentType(appendTo.getContentType());
+            metadata.setUserMetadata(appendTo.getUserMetadata());
+        } else if (path.getFileName() != null) {
+            byte[] head = new byte[0];
+            if (current != null) {
+                ByteBuffer buffered = (ByteBuffer) current.duplicate().flip();
+                head = new byte[Math.min(buffered.remaining(), CONTENT_TYPE_DETECT_LENGTH)];
+                buffered.get(head);
+            }
+            metadata.setContentType(new Tika().detect(head, path.getFileName().toString()));
+        }
+        return metadata;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException(format("Stream closed: %s", path));
+    }
+
+    /**
+     * InputStream over the remaining bytes of a buffer, the buffer position is consumed
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.reset();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.upplication.s3fs;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * InputStream that downloads an object as consecutive ranges fetched concurrently.
+ * <p>
+ * At most <code>parallelism</code> ranges are in flight at the same time, each one downloaded
+ * into a buffer of <code>partSize</code> bytes. The buffers are returned in order to the reader and
+ * reused for the next ranges, so the memory used is bounded to <code>(parallelism + 1) * partSize</code>
+ * regardless of the object size.
+ * </p>
+ * <p>
+ * Every range is requested with the ETag of the object as condition, so if the object is replaced while
+ * it is read the stream fails instead of returning the content of both versions.
+ * </p>
+ */
+public class S3ParallelInputStream extends InputStream {
+
+    private final AmazonS3 client;
+    private final String bucket;
+    private final String key;
+    private final long size;
+    private final String eTag;
+    private final int partSize;
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    private final Deque<Future<Part>> inFlight = new ArrayDeque<>();
+    private final Deque<byte[]> freeBuffers = new ArrayDeque<>();
+    private long nextPartStart;
+    private Part current;
+    private int currentOffset;
+    private boolean closed;
+
+    /**
+     * @param client      AmazonS3 client
+     * @param bucket      String bucket name
+     * @param key         String key of the object
+     * @param size        long size of the object
+     * @param eTag        String ETag of the object, all the ranges must match it. null to read any version
+     * @param partSize    int bytes of every range
+     * @param parallelism int max ranges downloaded at the same time
+     * @param executor    ExecutorService where the ranges are downloaded
+     */
+    public S3ParallelInputStream(AmazonS3 client, String bucket, String key, long size, String eTag, int partSize, int parallelism, ExecutorService executor) {
+        this.client = client;
+        this.bucket = bucket;
+        this.key = key;
+        this.size = size;
+        this.eTag = eTag;
+        this.partSize = partSize;
+        this.parallelism = parallelism;
+        this.executor = executor;
+        schedule();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        if (len == 0)
+            return 0;
+        if (current == null || currentOffset == current.length) {
+            if (!nextPart())
+                return -1;
+        }
+        int count = Math.min(len, current.length - currentOffset);
+        System.arraycopy(current.buffer, currentOffset, b, off, count);
+        currentOffset += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current == null ? 0 : current.length - currentOffset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        for (Future<Part> part : inFlight)
+            part.cancel(true);
+        inFlight.clear();
+        freeBuffers.clear();
+        current = null;
+    }
+
+    /**
+     * wait for the next range in order and schedule a new one with the released buffer
+     *
+     * @return false if there are no more ranges
+     */
+    private boolean nextPart() throws IOException {
+        if (current != null) {
+            freeBuffers.push(current.buffer);
+            current = null;
+        }
+        Future<Part> next = inFlight.poll();
+        if (next == null)
+            return false;
+        try {
+            current = next.get();
+            currentOffset = 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(format("Interrupted reading: %s/%s", bucket, key));
+        } catch (ExecutionException e) {
+            close();
+            throw new IOException(format("Cannot read: %s/%s", bucket, key), e.getCause());
+        }
+        schedule();
+        return true;
+    }
+
+    /**
+     * submit ranges until the max parallelism is reached
+     */
+    private void schedule() {
+        while (inFlight.size() < parallelism && nextPartStart < size) {
+            final byte[] buffer = freeBuffers.isEmpty() ? new byte[partSize] : freeBuffers.pop();
+            final long start = nextPartStart;
+            final int length = (int) Math.min(partSize, size - start);
+            inFlight.add(executor.submit(new Callable<Part>() {
+                @Override
+                public Part call() throws Exception {
+                    return download(buffer, start, length);
+                }
+            }));
+            nextPartStart += length;
+        }
+    }
+
+    private Part download(byte[] buffer, long start, int length) throws IOException {
+        GetObjectRequest request = new GetObjectRequest(bucket, key).withRange(start, start + length - 1);
+        if (eTag != null)
+            request.withMatchingETagConstraint(eTag);
+        S3Object object = client.getObject(request);
+        // null if the ETag doesnt match
+        if (object == null)
+            throw new IOException(format("The object was modified while reading: %s/%s", bucket, key));
+        try (InputStream stream = object.getObjectContent()) {
+            int read = 0;
+            while (read < length) {
+                int count = stream.read(buffer, read, length - read);
+                if (count < 0)
+                    throw new IOException(format("Unexpected end of range %s-%s, the object was modified: %s/%s", start, start + length - 1, bucket, key));
+                read += count;
+            }
+        }
+        return new Part(buffer, length);
+    }
+
+    private static class Part {
+        private final byte[] buffer;
+        private final int length;
+
+        private Part(byte[] buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.upplication.s3fs;
+
+import static java.lang.String.format;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * PathMatcher of the {@link S3FileSystem} with the syntax "glob" or "regex", see {@link java.nio.file.FileSystem#getPathMatcher(String)}.
+ * <p>
+ * The patterns are matched against the path without the endpoint: <code>/bucket/key</code> for the absolute paths and
+ * <code>key</code> for the relative ones, so <code>glob:/bucket/logs/2024-0[1-3]/*.gz</code> matches the key
+ * <code>logs/2024-01/app.gz</code> of the bucket <code>bucket</code>.
+ * </p>
+ * <p>
+ * The matcher is a {@link DirectoryStream.Filter} too. When a absolute glob is used to filter a
+ * {@link java.nio.file.Files#newDirectoryStream(Path, DirectoryStream.Filter)} or a {@link S3Walker#walk(Path, PathMatcher)}
+ * the literal leading portion of the glob (until the first wildcard) is sent as the prefix of the listing,
+ * so only the keys that can match are listed instead of the whole directory.
+ * </p>
+ */
+public class S3PathMatcher implements PathMatcher, DirectoryStream.Filter<Path> {
+
+    public static final String GLOB_SYNTAX = "glob";
+    public static final String REGEX_SYNTAX = "regex";
+
+    private static final String REGEX_META_CHARS = ".^$+{[]|()";
+    private static final String GLOB_META_CHARS = "\\*?[{";
+
+    private final Pattern pattern;
+    /**
+     * literal leading portion of the glob, empty for the regex
+     */
+    private final String literalPrefix;
+    /**
+     * the glob after the literal prefix
+     */
+    private final String wildcards;
+
+    /**
+     * @param syntaxAndPattern String with the form <code>syntax:pattern</code>
+     * @throws IllegalArgumentException      if the parameter doesnt have the form <code>syntax:pattern</code>
+     * @throws PatternSyntaxException        if the pattern is invalid
+     * @throws UnsupportedOperationException if the syntax is not glob or regex
+     */
+    public S3PathMatcher(String syntaxAndPattern) {
+        Preconditions.checkNotNull(syntaxAndPattern, "syntaxAndPattern is mandatory");
+        int separator = syntaxAndPattern.indexOf(':');
+        Preconditions.checkArgument(separator > 0, "syntaxAndPattern must have the form syntax:pattern: %s", syntaxAndPattern);
+        String syntax = syntaxAndPattern.substring(0, separator);
+        String input = syntaxAndPattern.substring(separator + 1);
+        if (syntax.equalsIgnoreCase(GLOB_SYNTAX)) {
+            this.pattern = Pattern.compile(toRegex(input));
+            this.literalPrefix = getLiteralPrefix(input);
+            this.wildcards = input.substring(Math.min(input.length(), literalPrefixLength(input)));
+        } else if (syntax.equalsIgnoreCase(REGEX_SYNTAX)) {
+            this.pattern = Pattern.compile(input);
+            this.literalPrefix = "";
+            this.wildcards = input;
+        } else {
+            throw new UnsupportedOperationException(format("Syntax '%s' not recognized", syntax));
+        }
+    }
+
+    @Override
+    public boolean matches(Path path) {
+        return pattern.matcher(toMatchString(path)).matches();
+    }
+
+    @Override
+    public boolean accept(Path entry) {
+        return matches(entry);
+    }
+
+    /**
+     * @return the literal leading portion of the glob, empty for a regex or a glob that starts with a wildcard
+     */
+    public String getLiteralPrefix() {
+        return literalPrefix;
+    }
+
+    /**
+     * Key prefix to list the descendants of the directory that can match the pattern.
+     * If the literal portion of the pattern is inside the directory it is used to narrow the listing,
+     * otherwise the prefix of the directory is returned.
+     *
+     * @param dir        S3Path absolute directory listed
+     * @param firstLevel boolean true if only the first level of the directory is listed
+     * @return String key prefix, never shorter than the prefix of the directory
+     */
+    String getListingPrefix(S3Path dir, boolean firstLevel) {
+        String dirPrefix = dir.getKey().isEmpty() || dir.getKey().endsWith("/") ? dir.getKey() : dir.getKey() + "/";
+        String bucketPrefix = "/" + dir.getFileStore().name() + "/";
+        if (!literalPrefix.startsWith(bucketPrefix + dirPrefix))
+            return dirPrefix;
+        String prefix = literalPrefix.substring(bucketPrefix.length());
+        if (firstLevel) {
+            // with a delimiter the children are the first segment after the directory
+            int separator = prefix.indexOf('/', dirPrefix.length());
+            if (separator >= 0)
+                prefix = prefix.substring(0, separator);
+        }
+        return prefix;
+    }
+
+    /**
+     * @return true if the pattern only matches keys without more separators after the literal prefix,
+     * so the keys can be listed with a delimiter
+     */
+    boolean isSingleLevel() {
+        return !literalPrefix.isEmpty() && !wildcards.contains("/") && !wildcards.contains("**");
+    }
+
+    /**
+     * match a key of a listing without creating the S3Path
+     *
+     * @param bucket String name of the bucket
+     * @param key    String key, with or without end slash
+     * @return true if the path /bucket/key matches
+     */
+    boolean matches(String bucket, String key) {
+        return pattern.matcher(toMatchString(bucket, key)).matches();
+    }
+
+    private String toMatchString(Path path) {
+        if (path instanceof S3Path) {
+            S3Path s3Path = (S3Path) path;
+            return toMatchString(s3Path.getFileStore() == null ? null : s3Path.getFileStore().name(), s3Path.getKey());
+        }
+        return path.toString();
+    }
+
+    private String toMatchString(String bucket, String key) {
+        if (key.endsWith("/"))
+            key = key.substring(0, key.length() - 1);
+        if (bucket == null)
+            return key;
+        return "/" + bucket + (key.isEmpty() ? "" : "/" + key);
+    }
+
+    private static String getLiteralPrefix(String glob) {
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '\\') {
+                if (++i < glob.length())
+                    literal.append(glob.charAt(i));
+            } else if (GLOB_META_CHARS.indexOf(c) >= 0) {
+                break;
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.toString();
+    }
+
+    private static int literalPrefixLength(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '\\')
+                i++;
+            else if (GLOB_META_CHARS.indexOf(c) >= 0)
+                return i;
+        }
+        return glob.length();
+    }
+
+    /**
+     * convert the glob to a regex with the rules of {@link java.nio.file.FileSystem#getPathMatcher(String)}
+     *
+     * @param glob String glob pattern
+     * @return String regex
+     * @throws PatternSyntaxException if the glob is invalid
+     */
+    static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder("^");
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '\\':
+                    if (++i == glob.length())
+                        throw new PatternSyntaxException("No character to escape", glob, i - 1);
+                    appendLiteral(regex, glob.charAt(i));
+                    break;
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        regex.append(".*");
+                        i++;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '[':
+                    i = appendBracket(regex, glob, i);
+                    break;
+                case '{':
+                    if (inGroup)
+                        throw new PatternSyntaxException("Cannot nest groups", glob, i);
+                    regex.append("(?:(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    if (inGroup) {
+                        regex.append("))");
+                        inGroup = false;
+                    } else {
+                        regex.append('}');
+                    }
+                    break;
+                case ',':
+                    if (inGroup)
+                        regex.append(")|(?:");
+                    else
+                        regex.append(',');
+                    break;
+                default:
+                    appendLiteral(regex, c);
+            }
+        }
+        if (inGroup)
+            throw new PatternSyntaxException("Missing '}'", glob, glob.length() - 1);
+        return regex.append('$').toString();
+    }
+
+    /**
+     * append a bracket expression, the separator is never matched
+     *
+     * @return int index of the closing bracket
+     */
+    private static int appendBracket(StringBuilder regex, String glob, int start) {
+        regex.append("[[^/]&&[");
+        int i = start + 1;
+        if (i < glob.length() && glob.charAt(i) == '!') {
+            regex.append('^');
+            i++;
+        }
+        boolean first = true;
+        for (; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == ']' && !first) {
+                regex.append("]]");
+                return i;
+            }
+            if (c == '/')
+                throw new PatternSyntaxException("Explicit 'name separator' in class", glob, i);
+            if (c == '\\' || c == '[' || c == '&' || c == ']' || (c == '^' && first))
+                regex.append('\\');
+            regex.append(c);
+            first = false;
+        }
+        throw new PatternSyntaxException("Missing ']'", glob, glob.length() - 1);
+    }
+
+    private static void appendLiteral(StringBuilder regex, char c) {
+        if (REGEX_META_CHARS.indexOf(c) >= 0 || GLOB_META_CHARS.indexOf(c) >= 0 || c == '}')
+            regex.append('\\');
+        regex.append(c);
+    }
+}
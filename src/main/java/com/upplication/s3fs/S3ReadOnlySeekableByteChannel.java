@@ -0,0 +1,266 @@
+package com.upplication.s3fs;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.NoSuchFileException;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * Read only seekable byte channel served directly from S3 with ranged GET requests, so no local temp file is needed.
+ * <p>
+ * When the channel is opened only the first window of {@link S3FileSystemProvider#READ_AHEAD_MIN} bytes is requested
+ * with a ranged GET, and the size is read from the Content-Range of the response: a small object is served from memory
+ * after a single GET and opening a big one (or probing that it exists) only downloads the first window.
+ * When the threshold {@link S3FileSystemProvider#IN_MEMORY_THRESHOLD} is 0 the size is resolved with a HEAD instead
+ * and nothing is downloaded until the first read.
+ * </p>
+ * <p>
+ * The next requests download a window of the object into memory starting at the position read. When the reads are sequential
+ * the window is doubled up to {@link S3FileSystemProvider#READ_AHEAD_MAX} to avoid one round-trip
+ * per read, and a seek outside the window shrinks it back to {@link S3FileSystemProvider#READ_AHEAD_MIN}
+ * so random access doesnt download bytes that are never read. When the rest of the object from the position is not greater
+ * than the threshold it is downloaded with a single request, like the rest of a small object read with
+ * {@link java.nio.file.Files#readAllBytes(java.nio.file.Path)} or the footer of a big one.
+ * </p>
+ */
+public class S3ReadOnlySeekableByteChannel implements SeekableByteChannel {
+
+    public static final int DEFAULT_READ_AHEAD_MIN = 64 * 1024;
+    public static final int DEFAULT_READ_AHEAD_MAX = 8 * 1024 * 1024;
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+    private final S3Path path;
+    private final String bucket;
+    private final String key;
+    private final long size;
+    private final int minWindow;
+    private final int maxWindow;
+    private final int threshold;
+    private final S3ReadStatistics statistics = new S3ReadStatistics();
+
+    private long position;
+    private boolean open = true;
+
+    private byte[] buffer = new byte[0];
+    private long bufferStart;
+    private int bufferLength;
+    private int window;
+
+    /**
+     * Open a existing file for reading
+     *
+     * @param path the path to open, mandatory
+     * @throws NoSuchFileException if the key doesnt exists
+     * @throws IOException         if an I/O error occurs
+     */
+    public S3ReadOnlySeekableByteChannel(S3Path path) throws IOException {
+        this.path = path;
+        this.bucket = path.getFileStore().name();
+        this.key = path.getKey();
+        S3FileSystem fileSystem = path.getFileSystem();
+        this.minWindow = (int) fileSystem.getLongProperty(S3FileSystemProvider.READ_AHEAD_MIN, DEFAULT_READ_AHEAD_MIN);
+        this.maxWindow = Math.max(minWindow, (int) fileSystem.getLongProperty(S3FileSystemProvider.READ_AHEAD_MAX, DEFAULT_READ_AHEAD_MAX));
+        this.window = minWindow;
+        long threshold = fileSystem.getLongProperty(S3FileSystemProvider.IN_MEMORY_THRESHOLD, S3SeekableByteChannel.DEFAULT_IN_MEMORY_THRESHOLD);
+        this.threshold = (int) Math.max(0, Math.min(threshold, MAX_BUFFER_SIZE));
+        try {
+            if (this.threshold > 0) {
+                this.size = fetchFirst(Math.min(this.threshold, minWindow));
+            } else {
+                ObjectMetadata metadata = getClient().getObjectMetadata(bucket, key);
+                this.size = metadata.getContentLength();
+            }
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404)
+                throw new NoSuchFileException(format("target not exists: %s", path));
+            throw new IOException(format("Cannot access file: %s", path), e);
+        }
+    }
+
+    /**
+     * download the first bytes of the object
+     *
+     * @param length int max bytes to download
+     * @return long the size of the object
+     * @throws IOException if the content cannot be read
+     */
+    private long fetchFirst(int length) throws IOException {
+        S3Object object;
+        try {
+            object = getClient().getObject(new GetObjectRequest(bucket, key).withRange(0, length - 1));
+        } catch (AmazonS3Exception e) {
+            // the range of a empty object is not satisfiable
+            if (e.getStatusCode() == 416)
+                return 0;
+            throw e;
+        }
+        try (InputStream stream = object.getObjectContent()) {
+            long objectSize = object.getObjectMetadata().getInstanceLength();
+            buffer = new byte[(int) Math.min(length, objectSize)];
+            bufferLength = read(stream, buffer.length);
+            bufferStart = 0;
+            statistics.fetched(bufferLength);
+            path.getFileSystem().getReadStatistics().fetched(bufferLength);
+            return objectSize;
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size)
+            return -1;
+        if (!dst.hasRemaining())
+            return 0;
+
+        if (position < bufferStart || position >= bufferStart + bufferLength)
+            fill(dst.remaining());
+
+        int offset = (int) (position - bufferStart);
+        int len = Math.min(dst.remaining(), bufferLength - offset);
+        if (len <= 0) {
+            // the object was replaced by a shorter one while reading
+            return -1;
+        }
+        dst.put(buffer, offset, len);
+        position += len;
+        statistics.consumed(len);
+        path.getFileSystem().getReadStatistics().consumed(len);
+        return len;
+    }
+
+    /**
+     * download the next window starting at the current position, or all the rest of the object
+     * if it is not greater than the in memory threshold.
+     *
+     * @param wanted int bytes requested by the reader
+     * @throws IOException if the request fails
+     */
+    private void fill(int wanted) throws IOException {
+        int length;
+        if (size - position <= threshold) {
+            length = (int) (size - position);
+        } else {
+            long bufferEnd = bufferStart + bufferLength;
+            boolean sequential = bufferLength > 0 && position >= bufferEnd && position - bufferEnd < minWindow;
+            if (sequential)
+                window = (int) Math.min((long) window * 2, maxWindow);
+            else
+                window = minWindow;
+            length = (int) Math.min(Math.max(window, Math.min(wanted, maxWindow)), size - position);
+        }
+        if (buffer.length < length)
+            buffer = new byte[length];
+
+        try {
+            GetObjectRequest request = new GetObjectRequest(bucket, key).withRange(position, position + length - 1);
+            S3Object object = getClient().getObject(request);
+            try (InputStream stream = object.getObjectContent()) {
+                bufferLength = read(stream, length);
+                bufferStart = position;
+            }
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404)
+                throw new NoSuchFileException(format("target not exists: %s", path));
+            throw new IOException(format("Cannot access file: %s", path), e);
+        }
+        statistics.fetched(bufferLength);
+        path.getFileSystem().getReadStatistics().fetched(bufferLength);
+    }
+
+    /**
+     * read the stream into the buffer until the length or the end of the stream
+     *
+     * @return int bytes read
+     */
+    private int read(InputStream stream, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = stream.read(buffer, read, length - read);
+            if (count < 0)
+                break;
+            read += count;
+        }
+        return read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        if (newPosition < 0)
+            throw new IllegalArgumentException(format("position must be positive: %s", newPosition));
+        ensureOpen();
+        this.position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        buffer = new byte[0];
+        bufferLength = 0;
+    }
+
+    /**
+     * get the read counters of this channel.
+     * The counters of all the channels are accumulated in {@link S3FileSystem#getReadStatistics()}
+     *
+     * @return S3ReadStatistics never null
+     */
+    public S3ReadStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return the size of the next ranged request if the reads continue sequentially
+     */
+    int getWindow() {
+        return window;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open)
+            throw new ClosedChannelException();
+    }
+
+    private AmazonS3 getClient() {
+        return path.getFileSystem().getClient();
+    }
+}
@@ -0,0 +1,57 @@
+package com.upplication.s3fs;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the ranged reads done by the channels of a {@link S3FileSystem}.
+ * Comparing the bytes fetched from S3 with the bytes consumed by the readers
+ * shows how much of the read-ahead is wasted and helps to tune
+ * {@link S3FileSystemProvider#READ_AHEAD_MIN} and {@link S3FileSystemProvider#READ_AHEAD_MAX}.
+ */
+public class S3ReadStatistics {
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytesFetched = new AtomicLong();
+    private final AtomicLong bytesConsumed = new AtomicLong();
+
+    void fetched(long bytes) {
+        requests.incrementAndGet();
+        bytesFetched.addAndGet(bytes);
+    }
+
+    void consumed(long bytes) {
+        bytesConsumed.addAndGet(bytes);
+    }
+
+    /**
+     * @return number of ranged GET requests issued
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return bytes downloaded from S3
+     */
+    public long getBytesFetched() {
+        return bytesFetched.get();
+    }
+
+    /**
+     * @return bytes returned to the readers
+     */
+    public long getBytesConsumed() {
+        return bytesConsumed.get();
+    }
+
+    public void reset() {
+        requests.set(0);
+        bytesFetched.set(0);
+        bytesConsumed.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[requests=%s, bytesFetched=%s, bytesConsumed=%s]", getRequests(), getBytesFetched(), getBytesConsumed());
+    }
+}
@@ -0,0 +1,164 @@
+package com.upplication.s3fs;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.upplication.s3fs.util.S3Utils;
+
+/**
+ * Copy a path and all its descendants to other prefix (of the same or other bucket) with a single flat
+ * listing of the source and server-side copies: the content never goes through the JVM.
+ * <p>
+ * The copies are sent in the executor of the {@link S3FileSystem} while the next pages are listed,
+ * at most {@link S3FileSystemProvider#PARALLEL_COPY_OBJECTS} at the same time (by default as many as
+ * connections has the client). The objects greater than {@link S3FileSystemProvider#MULTIPART_COPY_THRESHOLD}
+ * are copied in parts with {@link S3MultipartCopy}.
+ * </p>
+ * <p>
+ * To move a directory the source keys are added to a {@link S3RecursiveDelete} as soon as their copy succeeds,
+ * so the batched deletes run while the remaining objects are being copied. If a copy fails the source keys
+ * not copied yet are kept: the move can be resumed with {@link java.nio.file.StandardCopyOption#REPLACE_EXISTING},
+ * only the remaining keys are listed again.
+ * </p>
+ *
+ * @see S3FileSystemProvider#copyRecursive(java.nio.file.Path, java.nio.file.Path, java.nio.file.CopyOption...)
+ * @see S3FileSystemProvider#move(java.nio.file.Path, java.nio.file.Path, java.nio.file.CopyOption...)
+ */
+class S3RecursiveCopy {
+
+    private final S3Path source;
+    private final S3Path target;
+    private final AmazonS3 client;
+    private final int parallelism;
+    private final S3MultipartCopy multipartCopy;
+    /**
+     * deletes of the source keys already copied, null to keep the source
+     */
+    private final S3RecursiveDelete sourceDeletes;
+
+    private final Deque<Future<String>> inFlight = new ArrayDeque<>();
+
+    S3RecursiveCopy(S3Path source, S3Path target) {
+        this(source, target, null);
+    }
+
+    /**
+     * @param source        S3Path mandatory
+     * @param target        S3Path mandatory
+     * @param sourceDeletes S3RecursiveDelete of the source to move it, null to copy it
+     */
+    S3RecursiveCopy(S3Path source, S3Path target, S3RecursiveDelete sourceDeletes) {
+        this.source = source;
+        this.target = target;
+        this.sourceDeletes = sourceDeletes;
+        S3FileSystem fileSystem = source.getFileSystem();
+        this.client = fileSystem.getClient();
+        long connections = fileSystem.getLongProperty(AmazonS3Factory.MAX_CONNECTIONS, ClientConfiguration.DEFAULT_MAX_CONNECTIONS);
+        this.parallelism = (int) Math.max(1, fileSystem.getLongProperty(S3FileSystemProvider.PARALLEL_COPY_OBJECTS, connections));
+        this.multipartCopy = new S3MultipartCopy(fileSystem);
+    }
+
+    /**
+     * @throws java.nio.file.NoSuchFileException if the source doesnt exists
+     * @throws S3BatchDeleteException            if moving and some source keys could not be deleted
+     * @throws IOException                       if a listing or a copy fails, the objects already copied are not removed
+     */
+    void copy() throws IOException {
+        String sourceKey = source.getKey();
+        String sourcePrefix = toPrefix(sourceKey);
+        String targetPrefix = toPrefix(target.getKey());
+        boolean found = false;
+        try {
+            ObjectListing listing = client.listObjects(new ListObjectsRequest(source.getFileStore().name(), sourcePrefix, null, null, null));
+            while (true) {
+                for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+                    found = true;
+                    String targetKey = targetPrefix + summary.getKey().substring(sourcePrefix.length());
+                    if (multipartCopy.isMultipart(summary.getSize())) {
+                        // the parts are copied in parallel in the executor
+                        multipartCopy.copy(source.getFileStore().name(), summary.getKey(), summary.getSize(), target.getFileStore().name(), targetKey);
+                        copied(summary.getKey());
+                    } else {
+                        submit(summary.getKey(), targetKey);
+                    }
+                }
+                if (!listing.isTruncated())
+                    break;
+                listing = client.listNextBatchOfObjects(listing);
+            }
+            if (!found) {
+                // without descendants it must be a file
+                multipartCopy.copy(source, new S3Utils().getS3FileAttributes(source).size(), target);
+                copied(sourceKey);
+            }
+            while (!inFlight.isEmpty())
+                waitFor(inFlight.poll());
+            if (sourceDeletes != null)
+                sourceDeletes.finish();
+        } catch (AmazonClientException e) {
+            throw new IOException(format("Cannot copy %s to %s", source, target), e);
+        } finally {
+            for (Future<String> copy : inFlight)
+                copy.cancel(true);
+            inFlight.clear();
+            if (sourceDeletes != null)
+                sourceDeletes.cancel();
+            target.getFileSystem().getAttributesCache().invalidate(target);
+            target.getFileSystem().getAttributesCache().invalidateDescendants(target);
+        }
+    }
+
+    /**
+     * send the copy in background, waiting for the oldest one if there are too many in flight.
+     * The copies already done are collected first so their source keys are deleted as soon as possible.
+     */
+    private void submit(final String sourceKey, final String targetKey) throws IOException {
+        while (!inFlight.isEmpty() && inFlight.peek().isDone())
+            waitFor(inFlight.poll());
+        while (inFlight.size() >= parallelism)
+            waitFor(inFlight.poll());
+        inFlight.add(source.getFileSystem().getExecutor().submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                client.copyObject(source.getFileStore().name(), sourceKey, target.getFileStore().name(), targetKey);
+                return sourceKey;
+            }
+        }));
+    }
+
+    /**
+     * the source key is only deleted after its copy succeeds
+     */
+    private void copied(String sourceKey) throws IOException {
+        if (sourceDeletes != null)
+            sourceDeletes.add(sourceKey);
+    }
+
+    private void waitFor(Future<String> copy) throws IOException {
+        try {
+            copied(copy.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(format("Interrupted copying %s to %s", source, target));
+        } catch (ExecutionException e) {
+            throw new IOException(format("Cannot copy %s to %s", source, target), e.getCause());
+        }
+    }
+
+    private static String toPrefix(String key) {
+        return key.isEmpty() || key.endsWith("/") ? key : key + "/";
+    }
+}
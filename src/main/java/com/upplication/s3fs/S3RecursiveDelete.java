@@ -0,0 +1,195 @@
+package com.upplication.s3fs;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.upplication.s3fs.util.S3Utils;
+
+/**
+ * Delete a path and all its descendants with a single flat listing and Multi-Object Delete requests
+ * of {@link #MAX_KEYS_PER_REQUEST} keys, sent in parallel in the executor of the {@link S3FileSystem}
+ * while the next pages are listed.
+ * <p>
+ * The objects of the directories (keys with end slash) are deleted at the end, the deepest first,
+ * so if something fails the remaining objects are still inside their directories.
+ * </p>
+ * <p>
+ * The keys can be added one by one with {@link #add(String)} and {@link #finish()}, to delete them while they
+ * are produced, like the source keys already copied by a {@link S3RecursiveCopy} when a directory is moved.
+ * </p>
+ *
+ * @see S3FileSystemProvider#deleteRecursive(java.nio.file.Path)
+ */
+class S3RecursiveDelete {
+
+    static final int MAX_KEYS_PER_REQUEST = 1000;
+    static final int DEFAULT_PARALLEL_DELETE_BATCHES = 4;
+
+    private final S3Path path;
+    private final AmazonS3 client;
+    private final String bucket;
+    private final int parallelism;
+
+    private final Deque<Future<List<MultiObjectDeleteException.DeleteError>>> inFlight = new ArrayDeque<>();
+    private final Map<String, String> errors = new TreeMap<>();
+    private final List<String> directories = new ArrayList<>();
+    private List<String> batch = new ArrayList<>();
+
+    S3RecursiveDelete(S3Path path) {
+        this.path = path;
+        this.client = path.getFileSystem().getClient();
+        this.bucket = path.getFileStore().name();
+        this.parallelism = (int) Math.max(1, path.getFileSystem().getLongProperty(S3FileSystemProvider.PARALLEL_DELETE_BATCHES, DEFAULT_PARALLEL_DELETE_BATCHES));
+    }
+
+    /**
+     * @throws java.nio.file.NoSuchFileException if the path doesnt exists
+     * @throws S3BatchDeleteException            if some keys could not be deleted
+     * @throws IOException                       if a request fails
+     */
+    void delete() throws IOException {
+        String key = path.getKey();
+        String prefix = key.isEmpty() || key.endsWith("/") ? key : key + "/";
+        boolean found = false;
+        try {
+            ObjectListing listing = client.listObjects(new ListObjectsRequest(bucket, prefix, null, null, MAX_KEYS_PER_REQUEST));
+            while (true) {
+                for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+                    found = true;
+                    add(summary.getKey());
+                }
+                if (!listing.isTruncated())
+                    break;
+                listing = client.listNextBatchOfObjects(listing);
+            }
+            if (!found && !key.isEmpty()) {
+                // without descendants it must be a file
+                new S3Utils().getS3FileAttributes(path);
+                add(key);
+            }
+            finish();
+        } catch (AmazonClientException e) {
+            throw new IOException(format("Cannot delete the path: %s", path), e);
+        } finally {
+            cancel();
+        }
+    }
+
+    /**
+     * add a key to the next batch, the batch is sent when is full.
+     * The keys with end slash are deleted by {@link #finish()}.
+     *
+     * @param key String key of the path or one of its descendants
+     * @throws IOException if a previous batch failed
+     */
+    void add(String key) throws IOException {
+        if (key.endsWith("/")) {
+            directories.add(key);
+            return;
+        }
+        batch.add(key);
+        if (batch.size() == MAX_KEYS_PER_REQUEST) {
+            submit(batch);
+            batch = new ArrayList<>();
+        }
+    }
+
+    /**
+     * send the pending keys and then the directories, waiting for all of them.
+     * Only the keys added are deleted: a object with the name of the directory without end slash
+     * is other file, not part of the directory.
+     *
+     * @throws S3BatchDeleteException if some keys could not be deleted, the directories are not deleted
+     *                                if a key of a file failed
+     * @throws IOException            if a request fails
+     */
+    void finish() throws IOException {
+        submit(batch);
+        batch = new ArrayList<>();
+        waitAll();
+        // the remaining files keep their directories
+        if (!errors.isEmpty()) {
+            directories.clear();
+            throw new S3BatchDeleteException(path, errors);
+        }
+
+        Collections.sort(directories, Collections.reverseOrder());
+        for (int i = 0; i < directories.size(); i += MAX_KEYS_PER_REQUEST)
+            submit(directories.subList(i, Math.min(directories.size(), i + MAX_KEYS_PER_REQUEST)));
+        waitAll();
+        directories.clear();
+        if (!errors.isEmpty())
+            throw new S3BatchDeleteException(path, errors);
+    }
+
+    /**
+     * cancel the batches in flight not started yet and discard the cached attributes of the path
+     */
+    void cancel() {
+        for (Future<?> request : inFlight)
+            request.cancel(true);
+        inFlight.clear();
+        path.getFileSystem().getAttributesCache().invalidate(path);
+        path.getFileSystem().getAttributesCache().invalidateDescendants(path);
+    }
+
+    /**
+     * send the keys in background, waiting for the oldest request if there are too many in flight
+     */
+    private void submit(List<String> keys) throws IOException {
+        if (keys.isEmpty())
+            return;
+        while (inFlight.size() >= parallelism)
+            waitFor(inFlight.poll());
+        final DeleteObjectsRequest request = new DeleteObjectsRequest(bucket)
+                .withKeys(keys.toArray(new String[keys.size()]))
+                .withQuiet(true);
+        inFlight.add(path.getFileSystem().getExecutor().submit(new Callable<List<MultiObjectDeleteException.DeleteError>>() {
+            @Override
+            public List<MultiObjectDeleteException.DeleteError> call() throws Exception {
+                try {
+                    client.deleteObjects(request);
+                    return Collections.emptyList();
+                } catch (MultiObjectDeleteException e) {
+                    return e.getErrors();
+                }
+            }
+        }));
+    }
+
+    private void waitAll() throws IOException {
+        while (!inFlight.isEmpty())
+            waitFor(inFlight.poll());
+    }
+
+    private void waitFor(Future<List<MultiObjectDeleteException.DeleteError>> request) throws IOException {
+        try {
+            for (MultiObjectDeleteException.DeleteError error : request.get())
+                errors.put(error.getKey(), format("%s: %s", error.getCode(), error.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(format("Interrupted deleting: %s", path));
+        } catch (ExecutionException e) {
+            throw new IOException(format("Cannot delete the path: %s", path), e.getCause());
+        }
+    }
+}
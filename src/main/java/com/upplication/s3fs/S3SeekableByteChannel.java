@@ -2,7 +2,6 @@ package com.upplication.s3fs;
 
 import static java.lang.String.format;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -14,15 +13,44 @@ import java.util.Set;
 
 import org.apache.tika.Tika;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
+import com.upplication.s3fs.util.S3Utils;
 
+/**
+ * Seekable byte channel of a S3 object. A read only channel is served with ranged requests
+ * ({@link S3ReadOnlySeekableByteChannel}), otherwise the object is downloaded when the channel is opened
+ * and uploaded when it is closed.
+ * <p>
+ * The content of a writable channel is kept in memory while it is not greater than
+ * {@link S3FileSystemProvider#IN_MEMORY_THRESHOLD} bytes and moved to a temp file when it grows past it.
+ * </p>
+ * <p>
+ * The content is only uploaded if the channel was written or truncated (or the object is new)
+ * and it is not the same as the downloaded object, see {@link #isUnchanged(String, InputStream)}.
+ * </p>
+ * <p>
+ * APPEND to a object of at least {@link S3OutputStream#MIN_PART_SIZE} bytes doesnt download it,
+ * see {@link S3AppendByteChannel}. A smaller object is downloaded and uploaded again.
+ * </p>
+ */
 public class S3SeekableByteChannel implements SeekableByteChannel {
 
+    public static final int DEFAULT_IN_MEMORY_THRESHOLD = 1024 * 1024;
+
     private S3Path path;
     private Set<? extends OpenOption> options;
     private SeekableByteChannel seekable;
-    private Path tempFile;
+    private S3SpillableByteChannel content;
+    private boolean readOnly;
+    private boolean appendOnly;
+    private boolean dirty;
+    private String eTag;
 
     /**
      * Open or creates a file, returning a seekable byte channel
@@ -34,35 +62,37 @@ public class S3SeekableByteChannel implements SeekableByteChannel {
     public S3SeekableByteChannel(S3Path path, Set<? extends OpenOption> options) throws IOException {
         this.path = path;
         this.options = Collections.unmodifiableSet(new HashSet<>(options));
-        String key = path.getKey();
-        boolean exists = path.getFileSystem().provider().exists(path);
-
-        if (exists && this.options.contains(StandardOpenOption.CREATE_NEW))
-            throw new FileAlreadyExistsException(format("target already exists: %s", path));
-        else if (!exists && !this.options.contains(StandardOpenOption.CREATE_NEW) &&
-                !this.options.contains(StandardOpenOption.CREATE))
-            throw new NoSuchFileException(format("target not exists: %s", path));
-
-        tempFile = Files.createTempFile("temp-s3-", key.replaceAll("/", "_"));
-        boolean removeTempFile = true;
-        try {
-            if (exists) {
-                try (S3Object object = path.getFileSystem()
-                        .getClient()
-                        .getObject(path.getFileStore().getBucket().getName(), key)) {
-                    Files.copy(object.getObjectContent(), tempFile, StandardCopyOption.REPLACE_EXISTING);
-                }
+        this.readOnly = isReadOnly(this.options);
+        if (readOnly) {
+            // served with ranged requests, no need to download the object
+            seekable = new S3ReadOnlySeekableByteChannel(path);
+            return;
+        }
+        if (isAppendOnly(this.options)) {
+            ObjectMetadata existing = getMetadata(path);
+            if (existing != null && existing.getContentLength() >= S3OutputStream.MIN_PART_SIZE) {
+                // the object is copied server-side, only the appended bytes are uploaded
+                seekable = new S3AppendByteChannel(path, existing);
+                appendOnly = true;
+                return;
             }
+        }
 
-            Set<? extends OpenOption> seekOptions = new HashSet<>(this.options);
-            seekOptions.remove(StandardOpenOption.CREATE_NEW);
-            seekable = Files.newByteChannel(tempFile, seekOptions);
-            removeTempFile = false;
-        } finally {
-            if (removeTempFile) {
-                Files.deleteIfExists(tempFile);
+        long threshold = path.getFileSystem().getLongProperty(S3FileSystemProvider.IN_MEMORY_THRESHOLD, DEFAULT_IN_MEMORY_THRESHOLD);
+        content = new S3SpillableByteChannel(this.options, threshold, path.getKey().replaceAll("/", "_"));
+        try (S3Object object = getContent(path, this.options)) {
+            if (object != null) {
+                content.load(object.getObjectContent(), object.getObjectMetadata().getContentLength());
+                eTag = object.getObjectMetadata().getETag();
+            } else {
+                // a new or truncated object is always uploaded
+                dirty = true;
             }
+        } catch (IOException | RuntimeException e) {
+            content.close();
+            throw e;
         }
+        seekable = content;
     }
 
     @Override
@@ -72,55 +102,197 @@ public class S3SeekableByteChannel implements SeekableByteChannel {
 
     @Override
     public void close() throws IOException {
-        try {
-            if (!seekable.isOpen())
-                return;
-
-            seekable.close();
+        if (!seekable.isOpen())
+            return;
 
+        try {
             if (options.contains(StandardOpenOption.DELETE_ON_CLOSE)) {
                 path.getFileSystem().provider().delete(path);
                 return;
             }
 
-            if (options.contains(StandardOpenOption.READ) && options.size() == 1) {
+            // the append channel uploads on close
+            if (readOnly || appendOnly || !dirty) {
                 return;
             }
 
+            // the content is discarded when it is closed
             sync();
 
         } finally {
-            Files.deleteIfExists(tempFile);
+            seekable.close();
         }
     }
 
     /**
-     * try to sync the temp file with the remote s3 path.
+     * Copy the content of the object to the temp file, see {@link #getContent(S3Path, Set)}
      *
-     * @throws IOException if the tempFile fails to open a newInputStream
+     * @param path     S3Path to open
+     * @param options  Set with the open options
+     * @param tempFile Path where the content is copied
+     * @return ObjectMetadata of the object copied, null if the temp file is left empty
+     * @throws NoSuchFileException if the path doesnt exists and the options doesnt contain CREATE or CREATE_NEW
+     * @throws IOException         if the content cannot be copied
+     */
+    static ObjectMetadata download(S3Path path, Set<? extends OpenOption> options, Path tempFile) throws IOException {
+        try (S3Object object = getContent(path, options)) {
+            if (object == null)
+                return null;
+            Files.copy(object.getObjectContent(), tempFile, StandardCopyOption.REPLACE_EXISTING);
+            return object.getObjectMetadata();
+        }
+    }
+
+    /**
+     * Check the open options against the existence of the object and get its content
+     * with the minimum requests: a single GET resolves the existence and the content (404 is not found),
+     * TRUNCATE_EXISTING only needs to know if the path exists and CREATE with TRUNCATE_EXISTING or CREATE_NEW
+     * doesnt need any request: CREATE_NEW is checked by the conditional PUT of {@link #upload(S3Path, InputStream, ObjectMetadata, Set)}.
+     *
+     * @param path    S3Path to open
+     * @param options Set with the open options
+     * @return S3Object to close after reading its content, null if the channel starts empty
+     * @throws NoSuchFileException if the path doesnt exists and the options doesnt contain CREATE or CREATE_NEW
+     */
+    static S3Object getContent(S3Path path, Set<? extends OpenOption> options) throws IOException {
+        boolean create = options.contains(StandardOpenOption.CREATE) || options.contains(StandardOpenOption.CREATE_NEW);
+        boolean truncate = options.contains(StandardOpenOption.TRUNCATE_EXISTING) &&
+                (options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND));
+        if (options.contains(StandardOpenOption.CREATE_NEW)) {
+            // the content of a new file is empty
+            return null;
+        }
+        if (truncate) {
+            if (!create && !path.getFileSystem().provider().exists(path))
+                throw new NoSuchFileException(format("target not exists: %s", path));
+            return null;
+        }
+        try {
+            return new S3Utils().getS3Object(path);
+        } catch (NoSuchFileException e) {
+            if (!create)
+                throw new NoSuchFileException(format("target not exists: %s", path));
+            return null;
+        }
+    }
+
+    /**
+     * Upload the content of the channel, with CREATE_NEW the PUT is conditional so the object is only created
+     * if no other writer has created it since the channel was opened.
+     *
+     * @param path     S3Path where the content is uploaded
+     * @param stream   InputStream with the content
+     * @param metadata ObjectMetadata with the length and the content type
+     * @param options  Set with the open options of the channel
+     * @throws FileAlreadyExistsException if the options contains CREATE_NEW and the path already exists
+     */
+    static void upload(S3Path path, InputStream stream, ObjectMetadata metadata, Set<? extends OpenOption> options) throws IOException {
+        String bucket = path.getFileStore().name();
+        String key = path.getKey();
+        try {
+            if (options.contains(StandardOpenOption.CREATE_NEW))
+                path.getFileSystem().getClient().putObject(S3Utils.ifNotExists(new PutObjectRequest(bucket, key, stream, metadata)));
+            else
+                path.getFileSystem().getClient().putObject(bucket, key, stream, metadata);
+        } catch (AmazonClientException e) {
+            if (S3Utils.isPreconditionFailed(e))
+                throw new FileAlreadyExistsException(format("target already exists: %s", path));
+            throw e;
+        } finally {
+            path.getFileSystem().getAttributesCache().invalidate(path);
+        }
+    }
+
+    /**
+     * Check if uploading the content would leave the object as it was downloaded: the ETag of a object
+     * uploaded with a single PUT and without SSE-KMS is the MD5 of its content. Any other ETag never matches.
+     *
+     * @param eTag    String ETag of the downloaded object, null if the object is new
+     * @param content InputStream with the content to upload, closed when it is read
+     * @return true if the MD5 of the content is the ETag
+     * @throws IOException if the content cannot be read
+     */
+    static boolean isUnchanged(String eTag, InputStream content) throws IOException {
+        try (InputStream stream = content) {
+            if (eTag == null || eTag.contains("-"))
+                return false;
+            return BinaryUtils.toHex(Md5Utils.computeMD5Hash(stream)).equalsIgnoreCase(eTag.replace("\"", ""));
+        }
+    }
+
+    /**
+     * @param path S3Path of the object
+     * @return ObjectMetadata of the object, null if it doesnt exists
+     */
+    private static ObjectMetadata getMetadata(S3Path path) throws IOException {
+        try {
+            return path.getFileSystem().getClient().getObjectMetadata(path.getFileStore().name(), path.getKey());
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404)
+                return null;
+            throw new IOException(format("Cannot access file: %s", path), e);
+        }
+    }
+
+    /**
+     * check if the existing content is kept and the channel only writes at the end
+     *
+     * @param options Set with the open options
+     * @return true if the options contains APPEND and doesnt contain TRUNCATE_EXISTING or CREATE_NEW
+     */
+    private static boolean isAppendOnly(Set<? extends OpenOption> options) {
+        return options.contains(StandardOpenOption.APPEND) && !options.contains(StandardOpenOption.TRUNCATE_EXISTING)
+                && !options.contains(StandardOpenOption.CREATE_NEW);
+    }
+
+    /**
+     * check if the channel only needs to read. No options means READ (see {@link Files#newByteChannel(Path, OpenOption...)})
+     *
+     * @param options Set with the open options
+     * @return true if the options are empty or only contains READ
+     */
+    private static boolean isReadOnly(Set<? extends OpenOption> options) {
+        return options.isEmpty() || (options.size() == 1 && options.contains(StandardOpenOption.READ));
+    }
+
+    /**
+     * try to sync the content of the channel with the remote s3 path.
+     * Nothing is uploaded if the content is the same as the downloaded object.
+     *
+     * @throws IOException if the temp file fails to open a newInputStream
      */
     protected void sync() throws IOException {
-        try (InputStream stream = new BufferedInputStream(Files.newInputStream(tempFile))) {
+        if (isUnchanged(eTag, content.newInputStream()))
+            return;
+        try (InputStream stream = content.newInputStream()) {
             ObjectMetadata metadata = new ObjectMetadata();
-            metadata.setContentLength(Files.size(tempFile));
+            metadata.setContentLength(content.size());
             if (path.getFileName() != null) {
                 metadata.setContentType(new Tika().detect(stream, path.getFileName().toString()));
             }
 
-            String bucket = path.getFileStore().name();
-            String key = path.getKey();
-            path.getFileSystem().getClient().putObject(bucket, key, stream, metadata);
+            upload(path, stream, metadata, options);
         }
     }
 
+    /**
+     * @return Path of the temp file with the content, null if the channel is read only or the content is in memory
+     */
+    Path getTempFile() {
+        return content == null ? null : content.getTempFile();
+    }
+
     @Override
     public int write(ByteBuffer src) throws IOException {
+        dirty = true;
         return seekable.write(src);
     }
 
     @Override
     public SeekableByteChannel truncate(long size) throws IOException {
-        return seekable.truncate(size);
+        dirty = true;
+        seekable.truncate(size);
+        return this;
     }
 
     @Override
@@ -0,0 +1,247 @@
+package com.upplication.s3fs;
+
+import static java.lang.String.format;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Set;
+
+import com.amazonaws.util.IOUtils;
+
+/**
+ * Content of a writable {@link S3SeekableByteChannel}, kept in a heap buffer while it is not greater than
+ * {@link S3FileSystemProvider#IN_MEMORY_THRESHOLD} bytes so a small object is read, modified and uploaded
+ * without a temp file.
+ * <p>
+ * When the loaded object or a write grows past the threshold the content is moved to a temp file
+ * and the rest of operations are delegated to a channel of the file. Closing the channel discards the buffer
+ * and deletes the temp file, so the content must be uploaded before.
+ * </p>
+ */
+class S3SpillableByteChannel implements SeekableByteChannel {
+
+    private final int threshold;
+    private final String tempFileSuffix;
+    private final boolean readable;
+    private final boolean writable;
+    private final boolean append;
+
+    private byte[] buffer = new byte[0];
+    private int size;
+    private long position;
+    private boolean open = true;
+
+    private Path tempFile;
+    private SeekableByteChannel file;
+
+    /**
+     * @param options        Set with the open options, READ and WRITE (or APPEND) are checked like {@link Files#newByteChannel(Path, Set, java.nio.file.attribute.FileAttribute[])}
+     * @param threshold      long max bytes kept in memory, 0 always uses a temp file
+     * @param tempFileSuffix String suffix of the temp file if the content is moved to disk
+     * @throws IOException if the threshold is 0 and the temp file cannot be created
+     */
+    S3SpillableByteChannel(Set<? extends OpenOption> options, long threshold, String tempFileSuffix) throws IOException {
+        this.threshold = (int) Math.max(0, Math.min(threshold, Integer.MAX_VALUE - 8));
+        this.tempFileSuffix = tempFileSuffix;
+        this.append = options.contains(StandardOpenOption.APPEND);
+        this.writable = append || options.contains(StandardOpenOption.WRITE);
+        this.readable = options.contains(StandardOpenOption.READ) || !writable;
+        if (append && options.contains(StandardOpenOption.READ))
+            throw new IllegalArgumentException("READ + APPEND not allowed");
+        if (this.threshold == 0)
+            spill();
+    }
+
+    /**
+     * replace the content with the stream, the position is not changed
+     *
+     * @param stream InputStream with the content, not closed
+     * @param length long expected length of the stream, a greater length is copied directly to the temp file
+     * @throws IOException if the stream cannot be read
+     */
+    void load(InputStream stream, long length) throws IOException {
+        ensureOpen();
+        if (file == null && length <= threshold) {
+            buffer = IOUtils.toByteArray(stream);
+            size = buffer.length;
+            if (size > threshold)
+                spill();
+            return;
+        }
+        if (file == null)
+            spill();
+        file.close();
+        Files.copy(stream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+        file = Files.newByteChannel(tempFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        file.position(position);
+    }
+
+    /**
+     * @return InputStream with the current content, it supports mark and reset
+     * @throws IOException if the temp file cannot be read
+     */
+    InputStream newInputStream() throws IOException {
+        ensureOpen();
+        if (file != null)
+            return new BufferedInputStream(Files.newInputStream(tempFile));
+        return new ByteArrayInputStream(buffer, 0, size);
+    }
+
+    /**
+     * @return Path of the temp file or null if the content is in memory
+     */
+    Path getTempFile() {
+        return tempFile;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (!readable)
+            throw new NonReadableChannelException();
+        if (file != null)
+            return file.read(dst);
+        if (position >= size)
+            return -1;
+        int len = (int) Math.min(dst.remaining(), size - position);
+        dst.put(buffer, (int) position, len);
+        position += len;
+        return len;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        if (!writable)
+            throw new NonWritableChannelException();
+        if (file == null) {
+            if (append)
+                position = size;
+            if (position + src.remaining() > threshold)
+                spill();
+        }
+        if (file != null) {
+            if (append)
+                file.position(file.size());
+            return file.write(src);
+        }
+
+        int len = src.remaining();
+        int end = (int) position + len;
+        if (end > buffer.length)
+            buffer = Arrays.copyOf(buffer, (int) Math.min(Math.max(end, (long) buffer.length * 2), threshold));
+        if (position > size)
+            Arrays.fill(buffer, size, (int) position, (byte) 0);
+        src.get(buffer, (int) position, len);
+        position = end;
+        size = Math.max(size, end);
+        return len;
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        if (file != null)
+            return file.position();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        if (newPosition < 0)
+            throw new IllegalArgumentException(format("position must be positive: %s", newPosition));
+        ensureOpen();
+        if (file != null)
+            file.position(newPosition);
+        else
+            position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        if (file != null)
+            return file.size();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long newSize) throws IOException {
+        if (newSize < 0)
+            throw new IllegalArgumentException(format("size must be positive: %s", newSize));
+        ensureOpen();
+        if (!writable)
+            throw new NonWritableChannelException();
+        if (file != null) {
+            file.truncate(newSize);
+            return this;
+        }
+        if (newSize < size)
+            size = (int) newSize;
+        if (position > newSize)
+            position = newSize;
+        return this;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * discard the content, the temp file (if any) is deleted
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open)
+            return;
+        open = false;
+        buffer = null;
+        try {
+            if (file != null)
+                file.close();
+        } finally {
+            if (tempFile != null)
+                Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * move the content to a new temp file, keeping the position
+     */
+    private void spill() throws IOException {
+        tempFile = Files.createTempFile("temp-s3-", tempFileSuffix);
+        try {
+            file = Files.newByteChannel(tempFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            file.write(ByteBuffer.wrap(buffer, 0, size));
+            file.position(position);
+        } catch (IOException e) {
+            if (file != null)
+                file.close();
+            file = null;
+            Files.deleteIfExists(tempFile);
+            tempFile = null;
+            throw e;
+        }
+        buffer = null;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open)
+            throw new ClosedChannelException();
+    }
+}
@@ -0,0 +1,361 @@
+package com.upplication.s3fs;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.amazonaws.AmazonClientException;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterators;
+import com.upplication.s3fs.attribute.S3BasicFileAttributes;
+
+/**
+ * Walk a file tree of a {@link S3FileSystem} like {@link Files#walkFileTree(Path, Set, int, FileVisitor)}
+ * but listing the subdirectories in parallel.
+ * <p>
+ * The default walk does a listing with delimiter for every directory, one after another.
+ * This walker does the same listings, but while a directory is visited the first page of the next subdirectories
+ * to visit (at any depth) is requested in the executor of the {@link S3FileSystem}.
+ * At most {@link S3FileSystemProvider#PARALLEL_WALK_PREFIXES} listings are requested ahead, so the memory used
+ * is bounded by these pages and the pages of the directories being visited: the children are streamed to the visitor.
+ * The tasks of the executor never wait other tasks, so the walk can not exhaust the pool whatever
+ * the {@link AmazonS3Factory#MAX_CONNECTIONS}.
+ * </p>
+ * <p>
+ * The visitor is called in the caller thread and in the same order than {@link Files#walkFileTree(Path, FileVisitor)},
+ * all of the elements with the attributes of the listing.
+ * </p>
+ * <p>
+ * When the order and the visitor events are not needed, {@link #walk(Path)} returns all the descendants
+ * of a directory with a single flat paginated listing: one request every 1000 keys whatever the depth of the tree.
+ * </p>
+ */
+public class S3Walker {
+
+    public static final int DEFAULT_PARALLEL_WALK_PREFIXES = 8;
+
+    private S3Walker() {
+    }
+
+    /**
+     * @param start   the starting file, must be a S3Path
+     * @param visitor the file visitor to invoke for each file
+     * @return the starting file
+     * @throws IOException if an I/O error is thrown by a visitor method
+     * @see Files#walkFileTree(Path, FileVisitor)
+     */
+    public static Path walkFileTree(Path start, FileVisitor<? super Path> visitor) throws IOException {
+        return walkFileTree(start, Collections.<FileVisitOption>emptySet(), Integer.MAX_VALUE, visitor);
+    }
+
+    /**
+     * @param start    the starting file, must be a S3Path
+     * @param options  options to configure the traversal, ignored: S3 doesnt have links
+     * @param maxDepth the maximum number of directory levels to visit
+     * @param visitor  the file visitor to invoke for each file
+     * @return the starting file
+     * @throws IOException if an I/O error is thrown by a visitor method
+     * @see Files#walkFileTree(Path, Set, int, FileVisitor)
+     */
+    public static Path walkFileTree(Path start, Set<FileVisitOption> options, int maxDepth, FileVisitor<? super Path> visitor) throws IOException {
+        Preconditions.checkArgument(start instanceof S3Path, "start must be an instance of %s", S3Path.class.getName());
+        Preconditions.checkArgument(maxDepth >= 0, "maxDepth must be positive: %s", maxDepth);
+        new Walk((S3Path) start, maxDepth, visitor).walk();
+        return start;
+    }
+
+    /**
+     * Open a stream over all the descendants of the directory (not only the first level), listed without delimiter
+     * in lexicographic order of the keys. The virtual directories between the start and the objects are returned too,
+     * before their first child. The start directory itself is not returned.
+     * <p>
+     * Every path returned has the attributes of the listing attached, so {@link Files#readAttributes(Path, Class, java.nio.file.LinkOption...)}
+     * doesnt need a request per element.
+     * </p>
+     *
+     * @param start the directory to list, must be a S3Path
+     * @return DirectoryStream with the descendants, the listing is requested when the iterator is consumed
+     */
+    public static DirectoryStream<Path> walk(Path start) {
+        return walk(start, null);
+    }
+
+    /**
+     * Like {@link #walk(Path)} but only the descendants matched by the matcher are returned.
+     * With a absolute glob of {@link S3FileSystem#getPathMatcher(String)} the literal leading portion of the glob
+     * is the prefix of the listing, and if the rest of the glob doesnt cross a separator the keys are listed
+     * with a delimiter, so only the keys that can match are listed.
+     *
+     * @param start   the directory to list, must be a S3Path
+     * @param matcher PathMatcher to filter the descendants, null returns all of them
+     * @return DirectoryStream with the descendants matched, the listing is requested when the iterator is consumed
+     */
+    public static DirectoryStream<Path> walk(Path start, final PathMatcher matcher) {
+        Preconditions.checkArgument(start instanceof S3Path, "start must be an instance of %s", S3Path.class.getName());
+        final S3Path s3Path = (S3Path) start;
+        final String startKey = withoutEndSlash(s3Path.getKey());
+        final String startPrefix = startKey.isEmpty() ? "" : startKey + "/";
+        return new DirectoryStream<Path>() {
+
+            private S3Iterator iterator;
+
+            @Override
+            public void close() throws IOException {
+                // the next page prefetched would keep a connection of the executor
+                if (iterator != null)
+                    iterator.close();
+            }
+
+            @Override
+            public Iterator<Path> iterator() {
+                if (matcher instanceof S3PathMatcher) {
+                    // the matcher is evaluated by the iterator with the keys of the listing
+                    S3PathMatcher s3Matcher = (S3PathMatcher) matcher;
+                    String prefix = s3Matcher.getListingPrefix(s3Path, false);
+                    if (s3Matcher.isSingleLevel())
+                        iterator = new S3Iterator(s3Path.getFileStore(), prefix.substring(0, prefix.lastIndexOf('/') + 1), prefix, false, s3Matcher);
+                    else
+                        iterator = new S3Iterator(s3Path.getFileStore(), startPrefix, prefix, true, s3Matcher);
+                } else {
+                    iterator = new S3Iterator(s3Path.getFileStore(), startPrefix, true);
+                }
+                return Iterators.filter(iterator, new Predicate<Path>() {
+                    @Override
+                    public boolean apply(Path path) {
+                        // the object of the start directory (if any) is listed too
+                        return !withoutEndSlash(((S3Path) path).getKey()).equals(startKey)
+                                && (matcher == null || matcher instanceof S3PathMatcher || matcher.matches(path));
+                    }
+                });
+            }
+        };
+    }
+
+    private static String withoutEndSlash(String key) {
+        return key.endsWith("/") ? key.substring(0, key.length() - 1) : key;
+    }
+
+    private static class Walk {
+
+        private final S3Path start;
+        private final int maxDepth;
+        private final FileVisitor<? super Path> visitor;
+        private final S3FileSystem fileSystem;
+        private final int parallelism;
+        // first page of the directories listed ahead of the visit, at most parallelism
+        private final Map<S3Path, Future<S3Iterator>> listings = new HashMap<>();
+        // directories being visited, the deepest first
+        private final Deque<Level> levels = new ArrayDeque<>();
+
+        private Walk(S3Path start, int maxDepth, FileVisitor<? super Path> visitor) {
+            this.start = start;
+            this.maxDepth = maxDepth;
+            this.visitor = visitor;
+            this.fileSystem = start.getFileSystem();
+            this.parallelism = (int) Math.max(1, fileSystem.getLongProperty(S3FileSystemProvider.PARALLEL_WALK_PREFIXES, DEFAULT_PARALLEL_WALK_PREFIXES));
+        }
+
+        private void walk() throws IOException {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(start, BasicFileAttributes.class);
+            } catch (IOException e) {
+                visitor.visitFileFailed(start, e);
+                return;
+            }
+            if (!attrs.isDirectory() || maxDepth == 0) {
+                visitor.visitFile(start, attrs);
+                return;
+            }
+            try {
+                visitDirectory(start, attrs, 0);
+            } finally {
+                for (Future<S3Iterator> listing : listings.values())
+                    listing.cancel(true);
+                listings.clear();
+            }
+        }
+
+        /**
+         * visit the directory and its children like the {@link Files#walkFileTree(Path, Set, int, FileVisitor)}
+         *
+         * @return the result to apply in the parent directory
+         */
+        private FileVisitResult visitDirectory(S3Path dir, BasicFileAttributes attrs, int depth) throws IOException {
+            Level level;
+            try {
+                level = new Level(open(dir), depth);
+            } catch (AmazonClientException | DirectoryIteratorException e) {
+                return visitor.visitFileFailed(dir, toIOException(dir, e));
+            }
+
+            FileVisitResult result = visitor.preVisitDirectory(dir, attrs);
+            if (result != FileVisitResult.CONTINUE)
+                return result == FileVisitResult.SKIP_SUBTREE ? FileVisitResult.CONTINUE : result;
+
+            IOException failure = null;
+            levels.push(level);
+            try {
+                while (true) {
+                    schedule();
+                    S3Path child;
+                    try {
+                        child = level.next();
+                    } catch (AmazonClientException | DirectoryIteratorException e) {
+                        failure = toIOException(dir, e);
+                        break;
+                    }
+                    if (child == null)
+                        break;
+                    BasicFileAttributes childAttrs = getAttributes(child);
+                    if (childAttrs.isDirectory() && depth + 1 < maxDepth)
+                        result = visitDirectory(child, childAttrs, depth + 1);
+                    else
+                        result = visitor.visitFile(child, childAttrs);
+                    if (result == FileVisitResult.TERMINATE)
+                        return result;
+                    if (result == FileVisitResult.SKIP_SIBLINGS)
+                        break;
+                }
+            } finally {
+                levels.pop();
+                level.cancel();
+            }
+            return visitor.postVisitDirectory(dir, failure);
+        }
+
+        /**
+         * @return S3Iterator of the directory with the first page loaded: listed ahead in the executor
+         * or now in the caller thread
+         */
+        private S3Iterator open(S3Path dir) throws IOException {
+            Future<S3Iterator> listing = listings.remove(dir);
+            if (listing == null) {
+                S3Iterator iterator = new S3Iterator(dir);
+                iterator.hasNext();
+                return iterator;
+            }
+            try {
+                S3Iterator iterator = listing.get();
+                // consumed by the caller thread from now on
+                iterator.setPrefetch(true);
+                return iterator;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(format("Interrupted walking: %s", dir));
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+
+        /**
+         * submit the listing of the next subdirectories to visit until the max parallelism is reached.
+         * Only the pages already loaded are examined, from the deepest directory being visited,
+         * so the order of the submits follows the order of the visit.
+         */
+        private void schedule() {
+            for (Iterator<Level> iterator = levels.iterator(); iterator.hasNext() && listings.size() < parallelism; )
+                iterator.next().scan();
+        }
+
+        private void submit(final S3Path dir) {
+            listings.put(dir, fileSystem.getExecutor().submit(new Callable<S3Iterator>() {
+                @Override
+                public S3Iterator call() throws Exception {
+                    // the task runs in the executor: it must not wait the prefetch of the next page in the same executor
+                    S3Iterator iterator = new S3Iterator(dir);
+                    iterator.setPrefetch(false);
+                    iterator.hasNext();
+                    return iterator;
+                }
+            }));
+        }
+
+        private BasicFileAttributes getAttributes(S3Path path) {
+            BasicFileAttributes attrs = path.getFileAttributes();
+            if (attrs == null)
+                attrs = fileSystem.getAttributesCache().get(path);
+            if (attrs == null)
+                attrs = new S3BasicFileAttributes(path.getKey() + "/", null, 0, true, false);
+            return attrs;
+        }
+
+        private IOException toIOException(S3Path path, Throwable e) {
+            if (e instanceof DirectoryIteratorException)
+                return ((DirectoryIteratorException) e).getCause();
+            if (e instanceof IOException)
+                return (IOException) e;
+            return new IOException(format("Cannot list the directory: %s", path), e);
+        }
+
+        /**
+         * children of a directory being visited, streamed from its listing with delimiter
+         */
+        private class Level {
+            private final S3Iterator iterator;
+            private final int depth;
+            // children already examined by the schedule, not visited yet
+            private final Deque<S3Path> ahead = new ArrayDeque<>();
+
+            private Level(S3Iterator iterator, int depth) {
+                this.iterator = iterator;
+                this.depth = depth;
+            }
+
+            /**
+             * @return the next child to visit or null if there are no more
+             */
+            private S3Path next() {
+                if (!ahead.isEmpty())
+                    return ahead.poll();
+                return iterator.hasNext() ? iterator.next() : null;
+            }
+
+            /**
+             * examine the children of the page already loaded and submit the listing of the subdirectories
+             */
+            private void scan() {
+                while (listings.size() < parallelism && iterator.buffered() > 0) {
+                    S3Path child = iterator.next();
+                    ahead.add(child);
+                    if (depth + 1 < maxDepth && getAttributes(child).isDirectory())
+                        submit(child);
+                }
+            }
+
+            /**
+             * cancel the listings of the children not visited
+             */
+            private void cancel() {
+                for (S3Path child : ahead) {
+                    Future<S3Iterator> listing = listings.remove(child);
+                    if (listing != null)
+                        listing.cancel(true);
+                }
+                ahead.clear();
+            }
+        }
+    }
+}
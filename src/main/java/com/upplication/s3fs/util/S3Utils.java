@@ -1,5 +1,8 @@
 package com.upplication.s3fs.util;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.*;
 import com.google.common.collect.Sets;
@@ -22,7 +25,36 @@ import java.util.concurrent.TimeUnit;
 public class S3Utils {
 
     /**
-     * Get the {@link S3ObjectSummary} that represent this Path or her first child if this path not exists
+     * header of the conditional writes, with the value <code>*</code> the write fails if the key already exists
+     */
+    public static final String IF_NONE_MATCH = "If-None-Match";
+
+    /**
+     * Make a PUT, a copy or the completion of a multipart upload conditional: S3 creates the object only if the key
+     * doesnt exist, otherwise the request fails with 412 Precondition Failed (see {@link #isPreconditionFailed(AmazonClientException)}).
+     * Unlike checking the existence before writing, two concurrent writers cannot both succeed.
+     *
+     * @param request AmazonWebServiceRequest mandatory
+     * @param <T>     type of the request
+     * @return the same request
+     */
+    public static <T extends AmazonWebServiceRequest> T ifNotExists(T request) {
+        request.putCustomRequestHeader(IF_NONE_MATCH, "*");
+        return request;
+    }
+
+    /**
+     * @param e AmazonClientException of a request made conditional with {@link #ifNotExists(AmazonWebServiceRequest)}
+     * @return true if the request failed because the key already exists
+     */
+    public static boolean isPreconditionFailed(AmazonClientException e) {
+        return e instanceof AmazonServiceException && ((AmazonServiceException) e).getStatusCode() == 412;
+    }
+
+    /**
+     * Get the {@link S3ObjectSummary} that represent this Path or her first child if this path not exists.
+     * Only the metadata needed by the basic attributes is fetched, the owner is not populated
+     * (use {@link #getS3PosixFileAttributes(S3Path)} to get the owner and the permissions)
      *
      * @param s3Path {@link S3Path}
      * @return {@link S3ObjectSummary}
@@ -41,8 +73,6 @@ public class S3Utils {
             result.setKey(key);
             result.setLastModified(metadata.getLastModified());
             result.setSize(metadata.getContentLength());
-            AccessControlList objectAcl = client.getObjectAcl(bucketName, key);
-            result.setOwner(objectAcl.getOwner());
             return result;
         } catch (AmazonS3Exception e) {
             if (e.getStatusCode() != 404)
@@ -70,6 +100,26 @@ public class S3Utils {
         throw new NoSuchFileException(bucketName + S3Path.PATH_SEPARATOR + key);
     }
 
+    /**
+     * Get the object of the path with a single GET request: the existence, the metadata and the content
+     * are resolved at once, without a previous HEAD. The caller must close the object.
+     *
+     * @param s3Path S3Path mandatory not null
+     * @return S3Object never null
+     * @throws NoSuchFileException if the object doesnt exists (404)
+     */
+    public S3Object getS3Object(S3Path s3Path) throws NoSuchFileException {
+        String key = s3Path.getKey();
+        String bucketName = s3Path.getFileStore().name();
+        try {
+            return s3Path.getFileSystem().getClient().getObject(bucketName, key);
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() != 404)
+                throw e;
+        }
+        throw new NoSuchFileException(bucketName + S3Path.PATH_SEPARATOR + key);
+    }
+
     /**
      * getS3FileAttributes for the s3Path
      *
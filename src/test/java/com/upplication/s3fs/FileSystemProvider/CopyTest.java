@@ -1,21 +1,44 @@
 package com.upplication.s3fs.FileSystemProvider;
 
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.collect.ImmutableMap;
 import com.upplication.s3fs.S3FileSystem;
 import com.upplication.s3fs.S3FileSystemProvider;
+import com.upplication.s3fs.S3OutputStream;
 import com.upplication.s3fs.S3UnitTestBase;
 import com.upplication.s3fs.util.AmazonS3ClientMock;
 import com.upplication.s3fs.util.AmazonS3MockFactory;
 import com.upplication.s3fs.util.S3EndpointConstant;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
+import java.net.URI;
 import java.nio.file.*;
+import java.util.Arrays;
 import java.util.Properties;
+import java.util.Random;
 
+import static com.upplication.s3fs.AmazonS3Factory.ACCESS_KEY;
+import static com.upplication.s3fs.AmazonS3Factory.SECRET_KEY;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.*;
 
 public class CopyTest extends S3UnitTestBase {
@@ -91,6 +114,291 @@ public class CopyTest extends S3UnitTestBase {
         s3fsProvider.copy(file, fileDest);
     }
 
+    @Test
+    public void copyAlreadyExistsIsCheckedByTheCopy() throws IOException {
+        final String content = "sample-content";
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir").file("dir/file1", content.getBytes()).file("dir/file2", "other".getBytes());
+        FileSystem fs = createNewS3FileSystem();
+        Path file = fs.getPath("/bucketA", "dir", "file1");
+        Path fileDest = fs.getPath("/bucketA", "dir", "file2");
+        reset(client);
+        // act
+        try {
+            s3fsProvider.copy(file, fileDest);
+            fail("The copy must fail");
+        } catch (FileAlreadyExistsException e) {
+            // assert
+        }
+        verify(client).copyObject(any(CopyObjectRequest.class));
+        verify(client, never()).copyObject(anyString(), anyString(), anyString(), anyString());
+        assertArrayEquals("other".getBytes(), Files.readAllBytes(fileDest));
+    }
+
+    @Test
+    public void copyRecursive() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir", "dir/empty").file("dir/file1", "content1".getBytes()).file("dir/sub/file2", "content2".getBytes());
+        client.bucket("bucketB");
+        for (int i = 0; i < 1001; i++)
+            client.bucket("bucketA").file("dir/many/file" + i);
+        FileSystem fs = createNewS3FileSystem();
+        reset(client);
+        // act
+        s3fsProvider.copyRecursive(fs.getPath("/bucketA/dir"), fs.getPath("/bucketB/copy"));
+        // assert
+        // one listing to check that the target doesnt exists and one for the source
+        verify(client, times(2)).listObjects(any(ListObjectsRequest.class));
+        verify(client, times(1)).listNextBatchOfObjects(any(ObjectListing.class));
+        verify(client, times(1005)).copyObject(eq("bucketA"), startsWith("dir/"), eq("bucketB"), startsWith("copy/"));
+        verify(client, never()).getObject(eq("bucketA"), startsWith("dir/"));
+        assertArrayEquals("content1".getBytes(), Files.readAllBytes(fs.getPath("/bucketB/copy/file1")));
+        assertArrayEquals("content2".getBytes(), Files.readAllBytes(fs.getPath("/bucketB/copy/sub/file2")));
+        assertTrue(Files.isDirectory(fs.getPath("/bucketB/copy/empty")));
+        assertTrue(Files.exists(fs.getPath("/bucketB/copy/many/file1000")));
+        assertTrue(Files.exists(fs.getPath("/bucketA/dir/file1")));
+    }
+
+    @Test
+    public void copyRecursiveFile() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("dir/file1", "content1".getBytes());
+        FileSystem fs = createNewS3FileSystem();
+        // act
+        s3fsProvider.copyRecursive(fs.getPath("/bucketA/dir/file1"), fs.getPath("/bucketA/file2"));
+        // assert
+        assertArrayEquals("content1".getBytes(), Files.readAllBytes(fs.getPath("/bucketA/file2")));
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void copyRecursiveNotExists() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir");
+        FileSystem fs = createNewS3FileSystem();
+        // act
+        s3fsProvider.copyRecursive(fs.getPath("/bucketA/dir/file1"), fs.getPath("/bucketA/file2"));
+    }
+
+    @Test(expected = FileAlreadyExistsException.class)
+    public void copyRecursiveAlreadyExists() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("dir/file1", "dir2/file2");
+        FileSystem fs = createNewS3FileSystem();
+        // act
+        s3fsProvider.copyRecursive(fs.getPath("/bucketA/dir"), fs.getPath("/bucketA/dir2"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void copyRecursiveIntoItself() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("dir/file1");
+        FileSystem fs = createNewS3FileSystem();
+        // act
+        s3fsProvider.copyRecursive(fs.getPath("/bucketA/dir"), fs.getPath("/bucketA/dir/copy"));
+    }
+
+    @Test
+    public void copyRecursiveFailure() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("dir/file1", "dir/file2", "dir/file3");
+        doThrow(new AmazonServiceException("Access Denied")).when(client).copyObject("bucketA", "dir/file2", "bucketA", "copy/file2");
+        FileSystem fs = createNewS3FileSystem();
+        // act
+        try {
+            s3fsProvider.copyRecursive(fs.getPath("/bucketA/dir"), fs.getPath("/bucketA/copy"));
+            fail("The copy must fail");
+        } catch (IOException e) {
+            // assert
+            assertTrue(e.getCause() instanceof AmazonServiceException);
+        }
+        assertTrue(Files.notExists(fs.getPath("/bucketA/copy/file2")));
+    }
+
+    @Test
+    public void copyMultipart() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        byte[] content = bigContent();
+        client.bucket("bucketA").file("dir/file1", content);
+        FileSystem fs = createMultipartCopyFileSystem();
+        reset(client);
+        // act
+        s3fsProvider.copy(fs.getPath("/bucketA/dir/file1"), fs.getPath("/bucketA/dir/file2"));
+        // assert
+        verify(client, times(3)).copyPart(any(CopyPartRequest.class));
+        verify(client, never()).copyObject(anyString(), anyString(), anyString(), anyString());
+        assertArrayEquals(content, Files.readAllBytes(fs.getPath("/bucketA/dir/file2")));
+        assertTrue(client.getMultipartUploads().isEmpty());
+    }
+
+    @Test
+    public void copyMultipartKeepTheMetadata() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("dir/file1", bigContent());
+        FileSystem fs = createMultipartCopyFileSystem();
+        ObjectMetadata metadata = client.getObjectMetadata("bucketA", "dir/file1").clone();
+        metadata.setContentType("text/csv");
+        metadata.setContentEncoding("gzip");
+        metadata.setContentDisposition("attachment");
+        metadata.setCacheControl("no-cache");
+        metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        metadata.setHeader(Headers.STORAGE_CLASS, "STANDARD_IA");
+        metadata.addUserMetadata("owner", "me");
+        reset(client);
+        doReturn(metadata).when(client).getObjectMetadata("bucketA", "dir/file1");
+        ArgumentCaptor<InitiateMultipartUploadRequest> request = ArgumentCaptor.forClass(InitiateMultipartUploadRequest.class);
+        // act
+        s3fsProvider.copy(fs.getPath("/bucketA/dir/file1"), fs.getPath("/bucketA/dir/file2"));
+        // assert
+        verify(client).initiateMultipartUpload(request.capture());
+        reset(client);
+        ObjectMetadata copied = request.getValue().getObjectMetadata();
+        assertEquals("text/csv", copied.getContentType());
+        assertEquals("gzip", copied.getContentEncoding());
+        assertEquals("attachment", copied.getContentDisposition());
+        assertEquals("no-cache", copied.getCacheControl());
+        assertEquals(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION, copied.getSSEAlgorithm());
+        assertEquals("me", copied.getUserMetadata().get("owner"));
+        assertEquals(0, copied.getContentLength());
+        assertNull(copied.getETag());
+        assertEquals("STANDARD_IA", request.getValue().getStorageClass().toString());
+    }
+
+    @Test
+    public void copyMultipartWithAStaleCachedSize() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("dir/file1", bigContent());
+        FileSystem fs = createMultipartCopyFileSystem();
+        // the size is cached and the object is replaced by other greater
+        assertEquals(bigContent().length, Files.size(fs.getPath("/bucketA/dir/file1")));
+        byte[] content = new byte[3 * S3OutputStream.MIN_PART_SIZE + 10];
+        new Random(2).nextBytes(content);
+        client.deleteObject("bucketA", "dir/file1");
+        client.bucket("bucketA").file("dir/file1", content);
+        // act
+        s3fsProvider.copy(fs.getPath("/bucketA/dir/file1"), fs.getPath("/bucketA/dir/file2"));
+        // assert
+        assertArrayEquals(content, Files.readAllBytes(fs.getPath("/bucketA/dir/file2")));
+    }
+
+    @Test
+    public void copyMultipartSourceModifiedWhileCopying() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("dir/file1", bigContent());
+        FileSystem fs = createMultipartCopyFileSystem();
+        // the HEAD returns the ETag of other version than the one copied by the parts
+        ObjectMetadata metadata = client.getObjectMetadata("bucketA", "dir/file1").clone();
+        metadata.setHeader(Headers.ETAG, "other-version");
+        reset(client);
+        doReturn(metadata).when(client).getObjectMetadata("bucketA", "dir/file1");
+        // act
+        try {
+            s3fsProvider.copy(fs.getPath("/bucketA/dir/file1"), fs.getPath("/bucketA/dir/file2"));
+            fail("The copy must fail");
+        } catch (IOException e) {
+            // assert
+            assertTrue(e.getCause().getMessage().startsWith("The source was modified while copying"));
+        }
+        ArgumentCaptor<CopyPartRequest> request = ArgumentCaptor.forClass(CopyPartRequest.class);
+        verify(client, atLeastOnce()).copyPart(request.capture());
+        verify(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        reset(client);
+        assertEquals(Arrays.asList("other-version"), request.getValue().getMatchingETagConstraints());
+        assertTrue(client.getMultipartUploads().isEmpty());
+        assertTrue(Files.notExists(fs.getPath("/bucketA/dir/file2")));
+    }
+
+    @Test
+    public void copyMultipartFailureAbortTheUpload() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("dir/file1", bigContent());
+        doThrow(new AmazonServiceException("Internal Error")).when(client).copyPart(any(CopyPartRequest.class));
+        FileSystem fs = createMultipartCopyFileSystem();
+        // act
+        try {
+            s3fsProvider.copy(fs.getPath("/bucketA/dir/file1"), fs.getPath("/bucketA/dir/file2"));
+            fail("The copy must fail");
+        } catch (IOException e) {
+            // assert
+            assertTrue(e.getCause() instanceof AmazonServiceException);
+        }
+        verify(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        assertTrue(client.getMultipartUploads().isEmpty());
+        assertTrue(Files.notExists(fs.getPath("/bucketA/dir/file2")));
+    }
+
+    @Test
+    public void copyMultipartAlreadyExists() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("dir/file1", bigContent()).file("dir/file2", "other".getBytes());
+        FileSystem fs = createMultipartCopyFileSystem();
+        reset(client);
+        // act
+        try {
+            s3fsProvider.copy(fs.getPath("/bucketA/dir/file1"), fs.getPath("/bucketA/dir/file2"));
+            fail("The copy must fail");
+        } catch (FileAlreadyExistsException e) {
+            // assert
+        }
+        verify(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        assertTrue(client.getMultipartUploads().isEmpty());
+        assertArrayEquals("other".getBytes(), Files.readAllBytes(fs.getPath("/bucketA/dir/file2")));
+    }
+
+    @Test
+    public void copyRecursiveMultipart() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        byte[] content = bigContent();
+        client.bucket("bucketA").file("dir/big", content).file("dir/small", "small".getBytes());
+        FileSystem fs = createMultipartCopyFileSystem();
+        reset(client);
+        // act
+        s3fsProvider.copyRecursive(fs.getPath("/bucketA/dir"), fs.getPath("/bucketA/copy"));
+        // assert
+        verify(client, times(3)).copyPart(any(CopyPartRequest.class));
+        verify(client).copyObject("bucketA", "dir/small", "bucketA", "copy/small");
+        assertArrayEquals(content, Files.readAllBytes(fs.getPath("/bucketA/copy/big")));
+        assertArrayEquals("small".getBytes(), Files.readAllBytes(fs.getPath("/bucketA/copy/small")));
+    }
+
+    /**
+     * @return byte[] content copied in 3 parts of {@link S3OutputStream#MIN_PART_SIZE}
+     */
+    private byte[] bigContent() {
+        byte[] content = new byte[2 * S3OutputStream.MIN_PART_SIZE + 10];
+        new Random(1).nextBytes(content);
+        return content;
+    }
+
+    /**
+     * create a new file system that copies the files greater than 10 bytes in parts of {@link S3OutputStream#MIN_PART_SIZE}
+     * (the 4 bytes configured are raised to the min)
+     *
+     * @return FileSystem
+     * @throws IOException
+     */
+    private FileSystem createMultipartCopyFileSystem() throws IOException {
+        return s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"), ImmutableMap.<String, Object>builder()
+                .put(ACCESS_KEY, "access_key")
+                .put(SECRET_KEY, "secret_key")
+                .put(S3FileSystemProvider.MULTIPART_COPY_THRESHOLD, "10")
+                .put(S3FileSystemProvider.MULTIPART_COPY_PART_SIZE, "4")
+                .build());
+    }
+
     /**
      * create a new file system for s3 scheme with fake credentials
      * and global endpoint
@@ -1,11 +1,17 @@
 package com.upplication.s3fs.FileSystemProvider;
 
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
 import com.google.common.collect.ImmutableMap;
+import com.upplication.s3fs.S3BatchDeleteException;
 import com.upplication.s3fs.S3FileSystem;
 import com.upplication.s3fs.S3FileSystemProvider;
 import com.upplication.s3fs.S3UnitTestBase;
 import com.upplication.s3fs.util.AmazonS3ClientMock;
 import com.upplication.s3fs.util.AmazonS3MockFactory;
+import com.upplication.s3fs.util.MockBucket;
 import com.upplication.s3fs.util.S3EndpointConstant;
 import org.junit.Before;
 import org.junit.Test;
@@ -16,7 +22,16 @@ import java.nio.file.*;
 
 import static com.upplication.s3fs.AmazonS3Factory.ACCESS_KEY;
 import static com.upplication.s3fs.AmazonS3Factory.SECRET_KEY;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 public class DeleteTest extends S3UnitTestBase {
 
@@ -74,6 +89,125 @@ public class DeleteTest extends S3UnitTestBase {
         s3fsProvider.delete(file);
     }
 
+    @Test
+    public void deleteRecursive() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        MockBucket bucket = client.bucket("bucketA");
+        bucket.dir("dir", "dir/sub", "dir/sub/empty").file("dir/file1", "dir/sub/file2", "dir/sub/deep/file3", "dir2/file4");
+        for (int i = 0; i < 2500; i++)
+            bucket.file("dir/many/file" + i);
+        Path dir = createNewS3FileSystem().getPath("/bucketA/dir");
+        assertTrue(Files.exists(dir.resolve("sub/file2")));
+        reset(client);
+        // act
+        s3fsProvider.deleteRecursive(dir);
+        // assert
+        verify(client, times(1)).listObjects(any(ListObjectsRequest.class));
+        verify(client, times(2)).listNextBatchOfObjects(any(ObjectListing.class));
+        verify(client, times(4)).deleteObjects(any(DeleteObjectsRequest.class));
+        verify(client, never()).getObjectMetadata(anyString(), anyString());
+        assertTrue(Files.notExists(dir));
+        assertTrue(Files.notExists(dir.resolve("sub/file2")));
+        assertTrue(Files.exists(createNewS3FileSystem().getPath("/bucketA/dir2/file4")));
+    }
+
+    @Test
+    public void deleteRecursiveFile() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("dir/file", "dir/file2");
+        Path file = createNewS3FileSystem().getPath("/bucketA/dir/file");
+        // act
+        s3fsProvider.deleteRecursive(file);
+        // assert
+        assertTrue(Files.notExists(file));
+        assertTrue(Files.exists(file.resolveSibling("file2")));
+    }
+
+    @Test
+    public void deleteRecursiveKeepTheFileWithTheSameName() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("dir", "dir/file1", "dir/sub/file2");
+        Path dir = createNewS3FileSystem().getPath("/bucketA/dir");
+        // act
+        s3fsProvider.deleteRecursive(dir);
+        // assert
+        assertTrue(Files.notExists(dir.resolve("file1")));
+        assertTrue(Files.notExists(dir.resolve("sub/file2")));
+        assertTrue(Files.isRegularFile(createNewS3FileSystem().getPath("/bucketA/dir")));
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void deleteRecursiveNotExists() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir");
+        // act
+        s3fsProvider.deleteRecursive(createNewS3FileSystem().getPath("/bucketA/dir/file"));
+    }
+
+    @Test
+    public void deleteRecursiveReportTheKeysNotDeleted() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir").file("dir/file1", "dir/file2", "dir/file3");
+        AmazonServiceException denied = new AmazonServiceException("Access Denied");
+        denied.setErrorCode("AccessDenied");
+        doThrow(denied).when(client).deleteObject("bucketA", "dir/file2");
+        Path dir = createNewS3FileSystem().getPath("/bucketA/dir");
+        // act
+        try {
+            s3fsProvider.deleteRecursive(dir);
+            fail("The keys not deleted must be reported");
+        } catch (S3BatchDeleteException e) {
+            // assert
+            assertEquals(ImmutableMap.of("dir/file2", "AccessDenied: Access Denied"), e.getErrors());
+        }
+        assertTrue(Files.notExists(dir.resolve("file1")));
+        assertTrue(Files.exists(dir.resolve("file2")));
+        assertTrue(Files.notExists(dir.resolve("file3")));
+    }
+
+    @Test
+    public void deleteRecursiveKeepTheDirectoriesOfTheKeysNotDeleted() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir", "dir/sub").file("dir/file1", "dir/sub/file2");
+        Path dir = createNewS3FileSystem().getPath("/bucketA/dir");
+        reset(client);
+        AmazonServiceException denied = new AmazonServiceException("Access Denied");
+        denied.setErrorCode("AccessDenied");
+        doThrow(denied).when(client).deleteObject("bucketA", "dir/sub/file2");
+        // act
+        try {
+            s3fsProvider.deleteRecursive(dir);
+            fail("The keys not deleted must be reported");
+        } catch (S3BatchDeleteException e) {
+            // assert
+            assertEquals(ImmutableMap.of("dir/sub/file2", "AccessDenied: Access Denied"), e.getErrors());
+        }
+        verify(client, never()).deleteObject("bucketA", "dir/sub/");
+        verify(client, never()).deleteObject("bucketA", "dir/");
+        assertTrue(Files.notExists(dir.resolve("file1")));
+        assertTrue(Files.exists(dir.resolve("sub/file2")));
+    }
+
+    @Test
+    public void deleteRecursiveInvalidateTheCachedDescendants() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("dir/sub/file1");
+        Path dir = createNewS3FileSystem().getPath("/bucketA/dir");
+        assertTrue(Files.exists(dir.resolve("sub/file1")));
+        // act
+        s3fsProvider.deleteRecursive(dir);
+        // assert
+        assertTrue(Files.notExists(dir.resolve("sub/file1")));
+        assertTrue(Files.notExists(dir.resolve("sub")));
+    }
+
     /**
      * create a new file system for s3 scheme with fake credentials
      * and global endpoint
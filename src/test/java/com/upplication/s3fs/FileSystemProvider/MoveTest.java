@@ -1,10 +1,13 @@
 package com.upplication.s3fs.FileSystemProvider;
 
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.upplication.s3fs.S3FileSystem;
 import com.upplication.s3fs.S3FileSystemProvider;
 import com.upplication.s3fs.S3UnitTestBase;
 import com.upplication.s3fs.util.AmazonS3ClientMock;
 import com.upplication.s3fs.util.AmazonS3MockFactory;
+import com.upplication.s3fs.util.MockBucket;
 import com.upplication.s3fs.util.S3EndpointConstant;
 import org.junit.Before;
 import org.junit.Test;
@@ -14,6 +17,9 @@ import java.nio.file.*;
 import java.util.Properties;
 
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.*;
 
 public class MoveTest extends S3UnitTestBase {
@@ -91,6 +97,109 @@ public class MoveTest extends S3UnitTestBase {
         s3fsProvider.move(file, fileDest, StandardCopyOption.ATOMIC_MOVE);
     }
 
+    @Test
+    public void moveDirectory() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir", "dir/subdir")
+                .file("dir/file1", "content1".getBytes())
+                .file("dir/subdir/file2", "content2".getBytes());
+        // act
+        FileSystem fs = createNewS3FileSystem();
+        Path dir = fs.getPath("/bucketA/dir");
+        Path dirDest = fs.getPath("/bucketA/dir2");
+        s3fsProvider.move(dir, dirDest);
+        // assert
+        assertTrue(Files.notExists(dir));
+        assertTrue(Files.notExists(fs.getPath("/bucketA/dir/file1")));
+        assertTrue(Files.isDirectory(fs.getPath("/bucketA/dir2/subdir")));
+        assertArrayEquals("content1".getBytes(), Files.readAllBytes(fs.getPath("/bucketA/dir2/file1")));
+        assertArrayEquals("content2".getBytes(), Files.readAllBytes(fs.getPath("/bucketA/dir2/subdir/file2")));
+    }
+
+    @Test
+    public void moveDirectoryKeepTheFileWithTheSameName() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA")
+                .file("dir", "sibling".getBytes())
+                .file("dir/file1", "content1".getBytes());
+        // act
+        FileSystem fs = createNewS3FileSystem();
+        s3fsProvider.move(fs.getPath("/bucketA/dir/"), fs.getPath("/bucketA/dir2"));
+        // assert
+        assertTrue(Files.notExists(fs.getPath("/bucketA/dir/file1")));
+        assertArrayEquals("content1".getBytes(), Files.readAllBytes(fs.getPath("/bucketA/dir2/file1")));
+        assertArrayEquals("sibling".getBytes(), Files.readAllBytes(fs.getPath("/bucketA/dir")));
+        assertTrue(Files.notExists(fs.getPath("/bucketA/dir2/dir")));
+    }
+
+    @Test
+    public void moveDirectoryDeleteTheSourceInBatches() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        MockBucket bucket = client.bucket("bucketA").dir("dir");
+        for (int i = 0; i < 1001; i++)
+            bucket.file("dir/file" + i);
+        FileSystem fs = createNewS3FileSystem();
+        reset(client);
+        // act
+        s3fsProvider.move(fs.getPath("/bucketA/dir"), fs.getPath("/bucketA/dir2"));
+        // assert
+        // 1000 files, the last file and the directories
+        verify(client, times(3)).deleteObjects(any(DeleteObjectsRequest.class));
+        verify(client, times(1001)).copyObject(eq("bucketA"), startsWith("dir/file"), eq("bucketA"), startsWith("dir2/file"));
+        assertTrue(Files.notExists(fs.getPath("/bucketA/dir")));
+        assertTrue(Files.exists(fs.getPath("/bucketA/dir2/file1000")));
+    }
+
+    @Test
+    public void moveDirectoryFailedIsResumedWithReplaceExisting() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir")
+                .file("dir/file1", "content1".getBytes())
+                .file("dir/file2", "content2".getBytes());
+        doThrow(new AmazonServiceException("copy failed")).when(client).copyObject("bucketA", "dir/file2", "bucketA", "dir2/file2");
+        FileSystem fs = createNewS3FileSystem();
+        Path dir = fs.getPath("/bucketA/dir");
+        Path dirDest = fs.getPath("/bucketA/dir2");
+        // act
+        try {
+            s3fsProvider.move(dir, dirDest);
+            fail("The copy of dir/file2 must fail");
+        } catch (IOException e) {
+            // the key not copied is not deleted
+            assertArrayEquals("content2".getBytes(), Files.readAllBytes(fs.getPath("/bucketA/dir/file2")));
+        }
+        reset(client);
+        s3fsProvider.move(dir, dirDest, StandardCopyOption.REPLACE_EXISTING);
+        // assert
+        assertTrue(Files.notExists(dir));
+        assertArrayEquals("content1".getBytes(), Files.readAllBytes(fs.getPath("/bucketA/dir2/file1")));
+        assertArrayEquals("content2".getBytes(), Files.readAllBytes(fs.getPath("/bucketA/dir2/file2")));
+    }
+
+    @Test(expected = FileAlreadyExistsException.class)
+    public void moveDirectoryWithoutReplaceExisting() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir", "dir2").file("dir/file1");
+        // act
+        FileSystem fs = createNewS3FileSystem();
+        s3fsProvider.move(fs.getPath("/bucketA/dir"), fs.getPath("/bucketA/dir2"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void moveDirectoryIntoItself() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir").file("dir/file1");
+        // act
+        FileSystem fs = createNewS3FileSystem();
+        s3fsProvider.move(fs.getPath("/bucketA/dir"), fs.getPath("/bucketA/dir/dir2"));
+    }
+
     /**
      * create a new file system for s3 scheme with fake credentials
      * and global endpoint
@@ -1,7 +1,10 @@
 package com.upplication.s3fs.FileSystemProvider;
 
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
 import com.upplication.s3fs.S3FileSystem;
 import com.upplication.s3fs.S3FileSystemProvider;
+import com.upplication.s3fs.S3ObjectFilter;
 import com.upplication.s3fs.S3UnitTestBase;
 import com.upplication.s3fs.util.AmazonS3ClientMock;
 import com.upplication.s3fs.util.AmazonS3MockFactory;
@@ -9,13 +12,18 @@ import com.upplication.s3fs.util.MockBucket;
 import com.upplication.s3fs.util.S3EndpointConstant;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 
 import static org.junit.Assert.*;
 import static org.junit.Assert.assertNotNull;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.*;
 
 public class NewDirectoryStreamTest extends S3UnitTestBase {
@@ -138,6 +146,141 @@ public class NewDirectoryStreamTest extends S3UnitTestBase {
         assertEquals(count1050, count);
     }
 
+    @Test
+    public void filterIsApplied() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir1").file("file1", "file2");
+        Path bucket = createNewS3FileSystem().getPath("/bucketA");
+
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(bucket, new DirectoryStream.Filter<Path>() {
+            @Override
+            public boolean accept(Path entry) throws IOException {
+                return !Files.isDirectory(entry) && !entry.getFileName().toString().equals("file1");
+            }
+        })) {
+            for (Path path : stream)
+                names.add(path.getFileName().toString());
+        }
+
+        assertEquals(Arrays.asList("file2"), names);
+    }
+
+    @Test(expected = DirectoryIteratorException.class)
+    public void filterExceptionIsWrapped() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("file1");
+        Path bucket = createNewS3FileSystem().getPath("/bucketA");
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(bucket, new DirectoryStream.Filter<Path>() {
+            @Override
+            public boolean accept(Path entry) throws IOException {
+                throw new IOException("filter failed");
+            }
+        })) {
+            stream.iterator().hasNext();
+        }
+    }
+
+    @Test
+    public void objectFilterWithoutHeadRequests() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir", "dir/app-dir")
+                .file("dir/app-1.gz", new byte[10])
+                .file("dir/app-2.gz", new byte[100])
+                .file("dir/app-3.txt", new byte[10])
+                .file("dir/other.gz", new byte[10]);
+        Path dir = createNewS3FileSystem().getPath("/bucketA/dir");
+        reset(client);
+
+        S3ObjectFilter filter = new S3ObjectFilter()
+                .withNamePrefix("app")
+                .withNameSuffix(".gz")
+                .withSize(1, 50)
+                .withLastModified(new Date(System.currentTimeMillis() - 3600000), null);
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, filter)) {
+            for (Path path : stream)
+                names.add(path.getFileName().toString());
+        }
+
+        assertEquals(Arrays.asList("app-1.gz"), names);
+        ArgumentCaptor<ListObjectsRequest> request = ArgumentCaptor.forClass(ListObjectsRequest.class);
+        verify(client).listObjects(request.capture());
+        assertEquals("dir/app", request.getValue().getPrefix());
+        verify(client, never()).getObjectMetadata(anyString(), anyString());
+    }
+
+    @Test
+    public void objectFilterListTheNameEqualToThePrefix() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir")
+                .file("dir/ab", "dir/abc", "dir/abcd", "dir/abd");
+        Path dir = createNewS3FileSystem().getPath("/bucketA/dir");
+        reset(client);
+
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, new S3ObjectFilter().withNamePrefix("abc"))) {
+            for (Path path : stream)
+                names.add(path.getFileName().toString());
+        }
+
+        assertEquals(Arrays.asList("abc", "abcd"), names);
+        ArgumentCaptor<ListObjectsRequest> request = ArgumentCaptor.forClass(ListObjectsRequest.class);
+        verify(client).listObjects(request.capture());
+        assertEquals("dir/abc", request.getValue().getPrefix());
+        assertEquals("dir/", request.getValue().getMarker());
+    }
+
+    @Test
+    public void objectFilterAcceptDirectoriesWithoutSizeOrDate() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir1", "dir2").file("file1");
+        Path bucket = createNewS3FileSystem().getPath("/bucketA");
+
+        Set<String> names = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(bucket, new S3ObjectFilter().withNamePrefix("dir"))) {
+            for (Path path : stream)
+                names.add(path.getFileName().toString());
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList("dir1", "dir2")), names);
+    }
+
+    @Test(timeout = 30000)
+    public void closeCancelTheNextPageInFlight() throws Exception {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        MockBucket bucket = client.bucket("bucketA").dir("dir");
+        for (int i = 0; i < 1500; i++)
+            bucket.file("dir/file" + i);
+        Path dir = createNewS3FileSystem().getPath("/bucketA/dir");
+        reset(client);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        doAnswer(new Answer<ObjectListing>() {
+            @Override
+            public ObjectListing answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw e;
+                }
+                return null;
+            }
+        }).when(client).listNextBatchOfObjects(any(ObjectListing.class));
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            Iterator<Path> iterator = stream.iterator();
+            assertNotNull(iterator.next());
+            started.await();
+        } finally {
+            interrupted.await();
+            reset(client);
+        }
+    }
+
     /**
      * check if the directory path contains all the files name
      * @param base Path
@@ -1,8 +1,10 @@
 package com.upplication.s3fs.FileSystemProvider;
 
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.google.common.collect.ImmutableMap;
 import com.upplication.s3fs.S3FileSystem;
 import com.upplication.s3fs.S3FileSystemProvider;
+import com.upplication.s3fs.S3ParallelInputStream;
 import com.upplication.s3fs.S3UnitTestBase;
 import com.upplication.s3fs.util.AmazonS3ClientMock;
 import com.upplication.s3fs.util.AmazonS3MockFactory;
@@ -20,7 +22,11 @@ import java.util.Map;
 import static com.upplication.s3fs.AmazonS3Factory.ACCESS_KEY;
 import static com.upplication.s3fs.AmazonS3Factory.SECRET_KEY;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
 
 public class NewInputStreamTest extends S3UnitTestBase {
 
@@ -88,6 +94,80 @@ public class NewInputStreamTest extends S3UnitTestBase {
         s3fsProvider.newInputStream(result);
     }
 
+    @Test
+    public void inputStreamParallelRanges() throws IOException {
+        byte[] content = new byte[30];
+        for (int i = 0; i < content.length; i++)
+            content[i] = (byte) i;
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("file1", content);
+        Path file = s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"), buildParallelEnv()).getPath("/bucketA/file1");
+        reset(client);
+        // act
+        try (InputStream inputStream = s3fsProvider.newInputStream(file)) {
+            assertTrue(inputStream instanceof S3ParallelInputStream);
+            assertArrayEquals(content, IOUtils.toByteArray(inputStream));
+        }
+        // 30 bytes in ranges of 4
+        verify(client, times(8)).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    public void inputStreamParallelSmallFileIsNotSplit() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("file1", "abc".getBytes());
+        Path file = s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"), buildParallelEnv()).getPath("/bucketA/file1");
+        reset(client);
+        // act
+        try (InputStream inputStream = s3fsProvider.newInputStream(file)) {
+            assertArrayEquals("abc".getBytes(), IOUtils.toByteArray(inputStream));
+        }
+        verify(client, never()).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    public void inputStreamParallelCloseBeforeEnd() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("file1", "content larger than a part".getBytes());
+        Path file = s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"), buildParallelEnv()).getPath("/bucketA/file1");
+        // act
+        InputStream inputStream = s3fsProvider.newInputStream(file);
+        byte[] buffer = new byte[6];
+        assertEquals(4, inputStream.read(buffer));
+        assertEquals(2, inputStream.read(buffer, 4, 2));
+        inputStream.close();
+        assertArrayEquals("conten".getBytes(), buffer);
+    }
+
+    @Test
+    public void inputStreamParallelObjectReplacedWhileReading() throws IOException {
+        // fixtures
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("file1", "content larger than a part".getBytes());
+        Path file = s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"), buildParallelEnv()).getPath("/bucketA/file1");
+        // act
+        try (InputStream inputStream = s3fsProvider.newInputStream(file)) {
+            assertEquals('c', inputStream.read());
+            // other version with the same size
+            client.deleteObject("bucketA", "file1");
+            client.bucket("bucketA").file("file1", "CONTENT LARGER THAN A PART".getBytes());
+            IOUtils.toByteArray(inputStream);
+            fail("The read must fail");
+        } catch (IOException e) {
+            // assert
+            assertEquals("The object was modified while reading: bucketA/file1", e.getCause().getMessage());
+        }
+    }
+
+    private Map<String, ?> buildParallelEnv() {
+        return ImmutableMap.<String, Object>builder()
+                .put(S3FileSystemProvider.PARALLEL_DOWNLOAD_PARTS, "3")
+                .put(S3FileSystemProvider.PARALLEL_DOWNLOAD_PART_SIZE, "4").build();
+    }
+
     private Map<String, ?> buildFakeEnv() {
         return ImmutableMap.<String, Object>builder().put(ACCESS_KEY, "accesskey").put(SECRET_KEY, "secretkey").build();
     }
@@ -1,23 +1,46 @@
 package com.upplication.s3fs.FileSystemProvider;
 
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
 import com.google.common.collect.ImmutableMap;
 import com.upplication.s3fs.S3FileSystem;
 import com.upplication.s3fs.S3FileSystemProvider;
+import com.upplication.s3fs.S3OutputStream;
 import com.upplication.s3fs.S3UnitTestBase;
 import com.upplication.s3fs.util.AmazonS3ClientMock;
 import com.upplication.s3fs.util.AmazonS3MockFactory;
 import com.upplication.s3fs.util.S3EndpointConstant;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.upplication.s3fs.AmazonS3Factory.ACCESS_KEY;
 import static com.upplication.s3fs.AmazonS3Factory.SECRET_KEY;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
 
 public class NewOutputStreamTest extends S3UnitTestBase {
 
@@ -73,7 +96,24 @@ public class NewOutputStreamTest extends S3UnitTestBase {
     public void outputStreamWithCreateNewAndFileExists() throws IOException {
         Path base = getS3Directory();
         Path file = Files.createFile(base.resolve("file1"));
-        s3fsProvider.newOutputStream(file, StandardOpenOption.CREATE_NEW);
+        // checked by the conditional PUT
+        s3fsProvider.newOutputStream(file, StandardOpenOption.CREATE_NEW).close();
+    }
+
+    @Test
+    public void outputStreamWithCreateNewDoesntCheckTheExistence() throws IOException {
+        Path base = getS3Directory();
+        Path file = base.resolve("file1");
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        reset(client);
+
+        try (OutputStream stream = s3fsProvider.newOutputStream(file, StandardOpenOption.CREATE_NEW)) {
+            stream.write("content".getBytes());
+        }
+
+        verify(client, never()).getObjectMetadata(anyString(), anyString());
+        verify(client, never()).listObjects(any(ListObjectsRequest.class));
+        assertArrayEquals("content".getBytes(), Files.readAllBytes(file));
     }
 
     @Test
@@ -128,11 +168,231 @@ public class NewOutputStreamTest extends S3UnitTestBase {
         assertArrayEquals(content.getBytes(), buffer);
     }
 
+    @Test(expected = NoSuchFileException.class)
+    public void outputStreamWithTruncateAndFileNotExists() throws IOException {
+        Path base = getS3Directory();
+        s3fsProvider.newOutputStream(base.resolve("file1"), StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Test
+    public void outputStreamBiggerThanPartUseMultipartUpload() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        Path file = getS3Directory(ImmutableMap.<String, Object>of(S3FileSystemProvider.MULTIPART_UPLOAD_PART_SIZE, String.valueOf(S3OutputStream.MIN_PART_SIZE))).resolve("file1");
+        final byte[] content = content(2 * S3OutputStream.MIN_PART_SIZE + 10);
+        reset(client);
+
+        try (OutputStream stream = s3fsProvider.newOutputStream(file)) {
+            stream.write(content);
+        }
+
+        verify(client).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+        verify(client, times(3)).uploadPart(any(UploadPartRequest.class));
+        verify(client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        verify(client, never()).putObject(anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class));
+        assertTrue(client.getMultipartUploads().isEmpty());
+        assertArrayEquals(content, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void outputStreamSmallerThanPartUseSinglePut() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        Path file = getS3Directory(ImmutableMap.<String, Object>of(S3FileSystemProvider.MULTIPART_UPLOAD_PART_SIZE, String.valueOf(S3OutputStream.MIN_PART_SIZE))).resolve("file1");
+        reset(client);
+
+        try (OutputStream stream = s3fsProvider.newOutputStream(file)) {
+            stream.write("0123456789".getBytes());
+        }
+
+        verify(client, never()).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+        verify(client).putObject(anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class));
+        assertArrayEquals("0123456789".getBytes(), Files.readAllBytes(file));
+    }
+
+    @Test
+    public void outputStreamGrowTheBufferUntilThePartSize() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        Path file = getS3Directory().resolve("file1");
+        byte[] content = new byte[300 * 1024];
+        new Random(1).nextBytes(content);
+        reset(client);
+
+        try (OutputStream stream = s3fsProvider.newOutputStream(file)) {
+            stream.write(content, 0, 1000);
+            stream.write(content, 1000, content.length - 1000);
+        }
+
+        verify(client, never()).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+        assertArrayEquals(content, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void outputStreamFailedPartAbortTheUpload() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        Path file = getS3Directory(ImmutableMap.<String, Object>of(S3FileSystemProvider.MULTIPART_UPLOAD_PART_SIZE, String.valueOf(S3OutputStream.MIN_PART_SIZE))).resolve("file1");
+        reset(client);
+        doCallRealMethod().doThrow(new AmazonS3Exception("error")).when(client).uploadPart(any(UploadPartRequest.class));
+
+        try (OutputStream stream = s3fsProvider.newOutputStream(file)) {
+            stream.write(content(2 * S3OutputStream.MIN_PART_SIZE + 10));
+            fail("the second part must fail");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            reset(client);
+        }
+
+        verify(client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        assertTrue(client.getMultipartUploads().isEmpty());
+        assertTrue(Files.notExists(file));
+    }
+
+    @Test
+    public void outputStreamParallelPartsKeepTheOrder() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        Path file = getS3Directory(ImmutableMap.<String, Object>of(S3FileSystemProvider.MULTIPART_UPLOAD_PART_SIZE, String.valueOf(S3OutputStream.MIN_PART_SIZE),
+                S3FileSystemProvider.PARALLEL_UPLOAD_PARTS, "3")).resolve("file1");
+        final byte[] content = content(3 * S3OutputStream.MIN_PART_SIZE + 10);
+        reset(client);
+        // the first parts are the slowest
+        doAnswer(new Answer<UploadPartResult>() {
+            @Override
+            public UploadPartResult answer(InvocationOnMock invocation) throws Throwable {
+                UploadPartRequest request = (UploadPartRequest) invocation.getArguments()[0];
+                Thread.sleep(10 * (7 - request.getPartNumber()));
+                return (UploadPartResult) invocation.callRealMethod();
+            }
+        }).when(client).uploadPart(any(UploadPartRequest.class));
+
+        try (OutputStream stream = s3fsProvider.newOutputStream(file)) {
+            for (int off = 0; off < content.length; off += 1000)
+                stream.write(content, off, Math.min(1000, content.length - off));
+        } finally {
+            reset(client);
+        }
+
+        assertTrue(client.getMultipartUploads().isEmpty());
+        assertArrayEquals(content, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void outputStreamParallelFailedPartAbortTheUpload() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        Path file = getS3Directory(ImmutableMap.<String, Object>of(S3FileSystemProvider.MULTIPART_UPLOAD_PART_SIZE, String.valueOf(S3OutputStream.MIN_PART_SIZE),
+                S3FileSystemProvider.PARALLEL_UPLOAD_PARTS, "2")).resolve("file1");
+        reset(client);
+        doCallRealMethod().doThrow(new AmazonS3Exception("error")).doCallRealMethod().when(client).uploadPart(any(UploadPartRequest.class));
+
+        try (OutputStream stream = s3fsProvider.newOutputStream(file)) {
+            stream.write(content(3 * S3OutputStream.MIN_PART_SIZE + 10));
+            stream.close();
+            fail("the second part must fail");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            reset(client);
+        }
+
+        assertTrue(client.getMultipartUploads().isEmpty());
+        assertTrue(Files.notExists(file));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void outputStreamPartSmallerThanTheMinPartSize() throws IOException {
+        Path file = getS3Directory(ImmutableMap.<String, Object>of(S3FileSystemProvider.MULTIPART_UPLOAD_PART_SIZE,
+                String.valueOf(S3OutputStream.MIN_PART_SIZE - 1))).resolve("file1");
+        s3fsProvider.newOutputStream(file);
+    }
+
+    @Test
+    public void outputStreamDoubleThePartSizeEvery1000Parts() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        Path file = getS3Directory(ImmutableMap.<String, Object>of(S3FileSystemProvider.MULTIPART_UPLOAD_PART_SIZE, String.valueOf(S3OutputStream.MIN_PART_SIZE))).resolve("file1");
+        final List<Long> partSizes = new ArrayList<>();
+        reset(client);
+        // the parts are not kept by the mock
+        doAnswer(new Answer<UploadPartResult>() {
+            @Override
+            public UploadPartResult answer(InvocationOnMock invocation) throws Throwable {
+                UploadPartRequest request = (UploadPartRequest) invocation.getArguments()[0];
+                partSizes.add(request.getPartSize());
+                UploadPartResult result = new UploadPartResult();
+                result.setPartNumber(request.getPartNumber());
+                result.setETag("etag" + request.getPartNumber());
+                return result;
+            }
+        }).when(client).uploadPart(any(UploadPartRequest.class));
+        doReturn(new CompleteMultipartUploadResult()).when(client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+
+        byte[] chunk = new byte[S3OutputStream.MIN_PART_SIZE];
+        try (OutputStream stream = s3fsProvider.newOutputStream(file)) {
+            for (int i = 0; i < 1002; i++)
+                stream.write(chunk);
+        } finally {
+            reset(client);
+        }
+
+        // 1000 parts of the part size and the rest in a part of the double
+        assertEquals(1001, partSizes.size());
+        assertEquals(Long.valueOf(S3OutputStream.MIN_PART_SIZE), partSizes.get(999));
+        assertEquals(Long.valueOf(2 * S3OutputStream.MIN_PART_SIZE), partSizes.get(1000));
+    }
+
+    @Test
+    public void outputStreamParallelPartsKeepTheMemoryLimitWhenThePartSizeGrows() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        Path file = getS3Directory(ImmutableMap.<String, Object>of(
+                S3FileSystemProvider.MULTIPART_UPLOAD_PART_SIZE, String.valueOf(S3OutputStream.MIN_PART_SIZE),
+                S3FileSystemProvider.PARALLEL_UPLOAD_PARTS, "3")).resolve("file1");
+        final AtomicLong inFlightBytes = new AtomicLong();
+        final AtomicLong maxInFlightBytes = new AtomicLong();
+        reset(client);
+        // the parts are not kept by the mock, the doubled parts are slow so they are uploaded at the same time
+        doAnswer(new Answer<UploadPartResult>() {
+            @Override
+            public UploadPartResult answer(InvocationOnMock invocation) throws Throwable {
+                UploadPartRequest request = (UploadPartRequest) invocation.getArguments()[0];
+                long bytes = inFlightBytes.addAndGet(request.getPartSize());
+                synchronized (maxInFlightBytes) {
+                    maxInFlightBytes.set(Math.max(maxInFlightBytes.get(), bytes));
+                }
+                if (request.getPartNumber() > 1000)
+                    Thread.sleep(50);
+                inFlightBytes.addAndGet(-request.getPartSize());
+                UploadPartResult result = new UploadPartResult();
+                result.setPartNumber(request.getPartNumber());
+                result.setETag("etag" + request.getPartNumber());
+                return result;
+            }
+        }).when(client).uploadPart(any(UploadPartRequest.class));
+        doReturn(new CompleteMultipartUploadResult()).when(client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+
+        byte[] chunk = new byte[S3OutputStream.MIN_PART_SIZE];
+        try (OutputStream stream = s3fsProvider.newOutputStream(file)) {
+            for (int i = 0; i < 1000 + 4 * 2; i++)
+                stream.write(chunk);
+        } finally {
+            reset(client);
+        }
+
+        // the 4 buffers of the part size are released to keep 2 buffers of the double
+        assertTrue(maxInFlightBytes.get() <= 4 * S3OutputStream.MIN_PART_SIZE);
+    }
+
+    private byte[] content(int length) {
+        byte[] content = new byte[length];
+        new Random(1).nextBytes(content);
+        return content;
+    }
+
     private Path getS3Directory() throws IOException {
+        return getS3Directory(ImmutableMap.<String, Object>of());
+    }
+
+    private Path getS3Directory(Map<String, Object> props) throws IOException {
         // fixtures
         AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
         client.bucket("bucketA").dir("dir");
-        return s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"), ImmutableMap.<String, Object>builder().put(ACCESS_KEY, "access_key").put(SECRET_KEY, "secret_key").build()).getPath("/bucketA/dir");
+        return s3fsProvider.newFileSystem(URI.create("s3://endpoint1/"), ImmutableMap.<String, Object>builder().put(ACCESS_KEY, "access_key").put(SECRET_KEY, "secret_key").putAll(props).build()).getPath("/bucketA/dir");
     }
 
     /**
@@ -0,0 +1,197 @@
+package com.upplication.s3fs;
+
+import static com.upplication.s3fs.S3FileSystemProvider.ATTRIBUTES_CACHE_SIZE;
+import static com.upplication.s3fs.S3FileSystemProvider.ATTRIBUTES_CACHE_TTL;
+import static com.upplication.s3fs.S3FileSystemProvider.MISSING_CACHE_TTL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.google.common.collect.ImmutableMap;
+import com.upplication.s3fs.attribute.S3BasicFileAttributes;
+import com.upplication.s3fs.util.AmazonS3ClientMock;
+import com.upplication.s3fs.util.AmazonS3MockFactory;
+import com.upplication.s3fs.util.S3EndpointConstant;
+
+public class S3AttributesCacheTest extends S3UnitTestBase {
+
+    private AmazonS3ClientMock client;
+
+    @Before
+    public void setup() throws IOException {
+        client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir").file("dir/file1", "content".getBytes());
+    }
+
+    @Test
+    public void newPathForTheSameKeyUseTheCache() throws IOException {
+        S3FileSystem fileSystem = createFileSystem(ImmutableMap.<String, Object>of());
+        reset(client);
+
+        assertTrue(Files.exists(fileSystem.getPath("/bucketA/dir/file1")));
+        assertEquals(7, Files.size(fileSystem.getPath("/bucketA/dir/file1")));
+        assertNotNull(Files.getLastModifiedTime(fileSystem.getPath("/bucketA/dir/file1")));
+
+        verify(client, times(1)).getObjectMetadata("bucketA", "dir/file1");
+        assertEquals(1, fileSystem.getAttributesCache().getStats().missCount());
+        assertEquals(2, fileSystem.getAttributesCache().getStats().hitCount());
+    }
+
+    @Test
+    public void endSlashIsADifferentEntry() throws IOException {
+        S3FileSystem fileSystem = createFileSystem(ImmutableMap.<String, Object>of());
+        S3AttributesCache cache = fileSystem.getAttributesCache();
+        S3BasicFileAttributes file = new S3BasicFileAttributes("dir", null, 3, false, true);
+        S3BasicFileAttributes directory = new S3BasicFileAttributes("dir/", null, 0, true, false);
+
+        cache.put(fileSystem.getPath("/bucketA/dir"), file);
+        cache.put(fileSystem.getPath("/bucketA/dir/"), directory);
+
+        assertEquals(file, cache.get(fileSystem.getPath("/bucketA/dir")));
+        assertEquals(directory, cache.get(fileSystem.getPath("/bucketA/dir/")));
+        assertNull(cache.get(fileSystem.getPath("/bucketB/dir/")));
+
+        // a write in the directory changes both
+        cache.invalidate(fileSystem.getPath("/bucketA/dir/file3"));
+        assertNull(cache.get(fileSystem.getPath("/bucketA/dir")));
+        assertNull(cache.get(fileSystem.getPath("/bucketA/dir/")));
+    }
+
+    @Test
+    public void fileAndDirectoryWithTheSameName() throws IOException {
+        S3FileSystem fileSystem = createFileSystem(ImmutableMap.<String, Object>of());
+        client.bucket("bucketA").file("dir2", "content".getBytes()).file("dir2/file2");
+
+        for (int i = 0; i < 2; i++) {
+            assertTrue(Files.isRegularFile(fileSystem.getPath("/bucketA/dir2")));
+            assertEquals(7, Files.size(fileSystem.getPath("/bucketA/dir2")));
+            assertTrue(Files.isDirectory(fileSystem.getPath("/bucketA/dir2/")));
+        }
+    }
+
+    @Test
+    public void writeInvalidateTheEntry() throws IOException {
+        S3FileSystem fileSystem = createFileSystem(ImmutableMap.<String, Object>of());
+        S3Path file1 = fileSystem.getPath("/bucketA/dir/file1");
+        assertEquals(7, Files.size(file1));
+
+        try (OutputStream stream = Files.newOutputStream(fileSystem.getPath("/bucketA/dir/file1"))) {
+            stream.write("new content".getBytes());
+        }
+
+        assertNull(fileSystem.getAttributesCache().get(file1));
+        assertEquals(11, Files.size(fileSystem.getPath("/bucketA/dir/file1")));
+    }
+
+    @Test
+    public void deleteInvalidateTheEntry() throws IOException {
+        S3FileSystem fileSystem = createFileSystem(ImmutableMap.<String, Object>of());
+        assertTrue(Files.exists(fileSystem.getPath("/bucketA/dir/file1")));
+
+        Files.delete(fileSystem.getPath("/bucketA/dir/file1"));
+
+        assertFalse(Files.exists(fileSystem.getPath("/bucketA/dir/file1")));
+    }
+
+    @Test
+    public void leastRecentlyUsedAreEvicted() throws IOException {
+        S3FileSystem fileSystem = createFileSystem(ImmutableMap.<String, Object>of(ATTRIBUTES_CACHE_SIZE, "1"));
+        client.bucket("bucketA").file("dir/file2");
+
+        Files.size(fileSystem.getPath("/bucketA/dir/file1"));
+        Files.size(fileSystem.getPath("/bucketA/dir/file2"));
+
+        assertEquals(1, fileSystem.getAttributesCache().size());
+        assertEquals(1, fileSystem.getAttributesCache().getStats().evictionCount());
+        assertNull(fileSystem.getAttributesCache().get(fileSystem.getPath("/bucketA/dir/file1")));
+    }
+
+    @Test
+    public void sizeZeroDisableTheCache() throws IOException {
+        S3FileSystem fileSystem = createFileSystem(ImmutableMap.<String, Object>of(ATTRIBUTES_CACHE_SIZE, "0"));
+        reset(client);
+
+        Files.size(fileSystem.getPath("/bucketA/dir/file1"));
+        Files.size(fileSystem.getPath("/bucketA/dir/file1"));
+
+        verify(client, times(2)).getObjectMetadata("bucketA", "dir/file1");
+    }
+
+    @Test
+    public void expiredEntriesAreRequestedAgain() throws IOException, InterruptedException {
+        S3FileSystem fileSystem = createFileSystem(ImmutableMap.<String, Object>of(ATTRIBUTES_CACHE_TTL, "1"));
+        reset(client);
+
+        Files.size(fileSystem.getPath("/bucketA/dir/file1"));
+        Thread.sleep(10);
+        Files.size(fileSystem.getPath("/bucketA/dir/file1"));
+
+        verify(client, times(2)).getObjectMetadata("bucketA", "dir/file1");
+    }
+
+    @Test
+    public void missingPathIsNotRequestedAgain() throws IOException {
+        S3FileSystem fileSystem = createFileSystem(ImmutableMap.<String, Object>of());
+        reset(client);
+
+        assertFalse(Files.exists(fileSystem.getPath("/bucketA/dir/file2")));
+        assertFalse(Files.exists(fileSystem.getPath("/bucketA/dir/file2")));
+        assertTrue(Files.notExists(fileSystem.getPath("/bucketA/dir/file2")));
+
+        verify(client, times(1)).getObjectMetadata("bucketA", "dir/file2");
+        verify(client, times(1)).listObjects(any(ListObjectsRequest.class));
+        assertEquals(2, fileSystem.getAttributesCache().getMissingStats().hitCount());
+    }
+
+    @Test
+    public void writeInvalidateTheMissingPathAndAncestors() throws IOException {
+        S3FileSystem fileSystem = createFileSystem(ImmutableMap.<String, Object>of());
+        assertFalse(Files.exists(fileSystem.getPath("/bucketA/dir2")));
+        assertFalse(Files.exists(fileSystem.getPath("/bucketA/dir2/file2")));
+
+        Files.write(fileSystem.getPath("/bucketA/dir2/file2"), "content".getBytes());
+
+        assertTrue(Files.exists(fileSystem.getPath("/bucketA/dir2/file2")));
+        assertTrue(Files.isDirectory(fileSystem.getPath("/bucketA/dir2")));
+    }
+
+    @Test
+    public void deleteInvalidateTheAncestors() throws IOException {
+        S3FileSystem fileSystem = createFileSystem(ImmutableMap.<String, Object>of());
+        client.bucket("bucketA").file("dir2/file2");
+        assertTrue(Files.isDirectory(fileSystem.getPath("/bucketA/dir2")));
+
+        Files.delete(fileSystem.getPath("/bucketA/dir2/file2"));
+
+        assertFalse(Files.exists(fileSystem.getPath("/bucketA/dir2")));
+    }
+
+    @Test
+    public void missingTtlZeroDisableTheMissingCache() throws IOException {
+        S3FileSystem fileSystem = createFileSystem(ImmutableMap.<String, Object>of(MISSING_CACHE_TTL, "0"));
+        reset(client);
+
+        assertFalse(Files.exists(fileSystem.getPath("/bucketA/dir/file2")));
+        assertFalse(Files.exists(fileSystem.getPath("/bucketA/dir/file2")));
+
+        verify(client, times(2)).getObjectMetadata("bucketA", "dir/file2");
+    }
+
+    private S3FileSystem createFileSystem(ImmutableMap<String, Object> props) throws IOException {
+        return (S3FileSystem) getS3fsProvider().newFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST, props);
+    }
+}
@@ -1,5 +1,6 @@
 package com.upplication.s3fs;
 
+import com.amazonaws.services.s3.model.ListObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.upplication.s3fs.util.AmazonS3ClientMock;
 import com.upplication.s3fs.util.AmazonS3MockFactory;
@@ -16,7 +17,10 @@ import java.nio.channels.NonWritableChannelException;
 import java.nio.file.*;
 import java.util.EnumSet;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.*;
 
 public class S3FileChannelTest extends S3UnitTestBase {
@@ -106,7 +110,49 @@ public class S3FileChannelTest extends S3UnitTestBase {
         client.bucket("buck").file("file1");
 
         S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
-        new S3FileChannel(file1, EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW));
+        // checked by the conditional PUT
+        new S3FileChannel(file1, EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)).close();
+    }
+
+    @Test
+    public void openWithSingleRequest() throws IOException {
+        client.bucket("buck").file("file1", "content".getBytes());
+        reset(client);
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        try (S3FileChannel channel = new S3FileChannel(file1, EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.READ))) {
+            assertEquals(7, channel.size());
+
+            verify(client, times(1)).getObject("buck", "file1");
+            verify(client, never()).getObjectMetadata(anyString(), anyString());
+            verify(client, never()).listObjects(any(ListObjectsRequest.class));
+            verify(client, never()).listBuckets();
+        }
+    }
+
+    @Test
+    public void readWithoutChangesDoesntUpload() throws IOException {
+        client.bucket("buck").file("file1", "content".getBytes());
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        try (S3FileChannel channel = new S3FileChannel(file1, EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.READ))) {
+            channel.read(ByteBuffer.allocate(7));
+        }
+
+        verify(client, never()).putObject(anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class));
+    }
+
+    @Test
+    public void writeWithReadUploads() throws IOException {
+        client.bucket("buck").file("file1", "content".getBytes());
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        try (S3FileChannel channel = new S3FileChannel(file1, EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.READ))) {
+            channel.write(ByteBuffer.wrap("C".getBytes()), 0);
+        }
+
+        verify(client, times(1)).putObject(eq("buck"), eq("file1"), any(InputStream.class), any(ObjectMetadata.class));
+        assertArrayEquals("Content".getBytes(), Files.readAllBytes(file1));
     }
 
     @Test(expected = RuntimeException.class)
@@ -3,12 +3,19 @@ package com.upplication.s3fs;
 import static com.upplication.s3fs.AmazonS3Factory.ACCESS_KEY;
 import static com.upplication.s3fs.AmazonS3Factory.SECRET_KEY;
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import java.io.IOException;
 import java.net.URI;
 import java.nio.file.*;
 import java.util.Map;
 
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.model.*;
 import com.google.common.collect.ImmutableMap;
 import com.upplication.s3fs.util.S3EndpointConstant;
@@ -84,6 +91,91 @@ public class S3FileStoreTest extends S3UnitTestBase {
         assertEquals("1", owner.getId());
     }
 
+    @Test
+    public void getBucketIsCached() {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        reset(client);
+
+        assertEquals("bucket", fileStore.getBucket().getName());
+        assertEquals("bucket", fileSystem.getPath("/bucket/placeholder").getFileStore().getBucket().getName());
+        assertEquals("Mock", fileStore.getOwner().getDisplayName());
+        assertEquals("Mock", fileSystem.getPath("/bucket/placeholder").getFileStore().getOwner().getDisplayName());
+
+        verify(client, times(1)).headBucket(any(HeadBucketRequest.class));
+        verify(client, times(1)).getBucketAcl("bucket");
+        verify(client, never()).listBuckets();
+    }
+
+    @Test
+    public void getBucketNotExists() {
+        S3FileStore s3FileStore = fileSystem.getPath("/bucket3/file").getFileStore();
+
+        assertNull(s3FileStore.getBucket());
+        assertNull(s3FileStore.getRegion());
+    }
+
+    @Test
+    public void getOwnerWithoutPermissionsOnTheBucket() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        reset(client);
+        AmazonServiceException forbidden = new AmazonServiceException("Access Denied");
+        forbidden.setStatusCode(403);
+        doThrow(forbidden).when(client).headBucket(any(HeadBucketRequest.class));
+        doThrow(forbidden).when(client).getBucketAcl("bucket");
+
+        S3Path placeholder = fileSystem.getPath("/bucket/placeholder");
+        assertNotNull(placeholder.getFileStore().getBucket());
+        assertNull(placeholder.getFileStore().getRegion());
+        assertEquals("Mock", placeholder.getFileStore().getOwner().getDisplayName());
+        placeholder.getFileSystem().provider().checkAccess(placeholder, AccessMode.READ);
+        placeholder.getFileSystem().provider().checkAccess(placeholder, AccessMode.READ);
+
+        verify(client, times(1)).headBucket(any(HeadBucketRequest.class));
+        verify(client, times(1)).getBucketAcl("bucket");
+        verify(client, times(1)).getS3AccountOwner();
+        reset(client);
+    }
+
+    @Test
+    public void getRegion() {
+        assertEquals("us-east-1", fileStore.getRegion());
+    }
+
+    @Test
+    public void createBucketInvalidateTheCache() throws IOException {
+        S3Path dir = fileSystem.getPath("/bucket3/dir");
+        assertNull(dir.getFileStore().getBucket());
+
+        Files.createDirectory(dir);
+
+        assertEquals("bucket3", dir.getFileStore().getBucket().getName());
+    }
+
+    @Test
+    public void readFileDoesntListTheBuckets() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        reset(client);
+
+        Files.readAllBytes(fileSystem.getPath("/bucket/placeholder"));
+        Files.readAllBytes(fileSystem.getPath("/bucket2/placeholder"));
+
+        verify(client, never()).listBuckets();
+    }
+
+    @Test
+    public void getFileStoresCacheTheBuckets() {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        fileSystem.getFileStores();
+        reset(client);
+
+        S3FileStoreAttributeView fileStoreAttributeView = fileStore.getFileStoreAttributeView(S3FileStoreAttributeView.class);
+
+        assertNotNull(fileStoreAttributeView.getAttribute(AttrID.creationDate.name()));
+        assertEquals("Mock", fileStoreAttributeView.getAttribute(AttrID.ownerDisplayName.name()));
+        verify(client, never()).listBuckets();
+        verify(client, never()).headBucket(any(HeadBucketRequest.class));
+    }
+
     @Test
     public void getRootDirectory() {
         S3Path rootDirectory = fileStore.getRootDirectory();
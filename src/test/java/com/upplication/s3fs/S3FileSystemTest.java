@@ -118,11 +118,22 @@ public class S3FileSystemTest extends S3UnitTestBase {
         assertEquals("/", S3Path.PATH_SEPARATOR);
     }
 
-    @Test(expected = UnsupportedOperationException.class)
-    public void getPathMatcherThrowException() {
+    @Test
+    public void getPathMatcher() {
+        assertTrue(fs.getPathMatcher("glob:/bucketA/dir/*.gz").matches(fs.getPath("/bucketA/dir/file.gz")));
+        assertFalse(fs.getPathMatcher("regex:.*\\.txt").matches(fs.getPath("/bucketA/dir/file.gz")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getPathMatcherWithoutSyntaxThrowException() {
         fs.getPathMatcher("");
     }
 
+    @Test(expected = UnsupportedOperationException.class)
+    public void getPathMatcherUnknownSyntaxThrowException() {
+        fs.getPathMatcher("unknown:*");
+    }
+
     @Test(expected = UnsupportedOperationException.class)
     public void getUserPrincipalLookupServiceThrowException() {
         fs.getUserPrincipalLookupService();
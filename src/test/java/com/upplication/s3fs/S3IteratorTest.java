@@ -11,6 +11,7 @@ import static org.mockito.Mockito.*;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -22,6 +23,7 @@ import java.util.Properties;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.amazonaws.services.s3.model.ListObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.upplication.s3fs.util.AmazonS3ClientMock;
 import com.upplication.s3fs.util.AmazonS3MockFactory;
@@ -215,6 +217,87 @@ public class S3IteratorTest extends S3UnitTestBase {
         verify(client, times(1)).listNextBatchOfObjects(any(ObjectListing.class));
     }
 
+    @Test
+    public void iteratorWarmTheAttributesCache() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir", "dir/sub").file("dir/file1", "content".getBytes()).file("dir/sub/file2");
+
+        S3FileSystem s3FileSystem = (S3FileSystem) FileSystems.getFileSystem(endpoint);
+        assertIterator(new S3Iterator(s3FileSystem.getPath("/bucketA", "dir")), "sub", "file1");
+        reset(client);
+
+        assertTrue(Files.isDirectory(s3FileSystem.getPath("/bucketA", "dir", "sub")));
+        assertTrue(Files.isRegularFile(s3FileSystem.getPath("/bucketA", "dir", "file1")));
+        assertEquals(7, Files.size(s3FileSystem.getPath("/bucketA", "dir", "file1")));
+
+        verify(client, never()).getObjectMetadata(anyString(), anyString());
+        verify(client, never()).listObjects(any(ListObjectsRequest.class));
+    }
+
+    @Test
+    public void incrementalIteratorWarmTheAttributesCache() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").file("dir/sub/file2", "content".getBytes());
+
+        S3FileSystem s3FileSystem = (S3FileSystem) FileSystems.getFileSystem(endpoint);
+        Iterator<Path> iterator = new S3Iterator(s3FileSystem.getPath("/bucketA", "dir"), true);
+        while (iterator.hasNext())
+            iterator.next();
+        reset(client);
+
+        assertTrue(Files.isDirectory(s3FileSystem.getPath("/bucketA", "dir", "sub")));
+        assertEquals(7, Files.size(s3FileSystem.getPath("/bucketA", "dir", "sub", "file2")));
+
+        verify(client, never()).getObjectMetadata(anyString(), anyString());
+        verify(client, never()).listObjects(any(ListObjectsRequest.class));
+    }
+
+    @Test
+    public void incrementalIteratorDontRepeatDirectories() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir/sub").file("dir/sub/file1", "dir/sub/file2", "dir/sub/deep/file3", "dir/other/file4");
+
+        S3FileSystem s3FileSystem = (S3FileSystem) FileSystems.getFileSystem(endpoint);
+        S3Iterator iterator = new S3Iterator(s3FileSystem.getPath("/bucketA", "dir"), true);
+
+        assertIterator(iterator, "dir", "other", "file4", "sub", "deep", "file3", "file1", "file2");
+    }
+
+    @Test
+    public void iteratorIsLazy() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucketA").dir("dir").file("dir/file1");
+
+        S3FileSystem s3FileSystem = (S3FileSystem) FileSystems.getFileSystem(endpoint);
+        S3Iterator iterator = new S3Iterator(s3FileSystem.getPath("/bucketA", "dir"));
+        verify(client, never()).listObjects(any(ListObjectsRequest.class));
+
+        assertTrue(iterator.hasNext());
+        verify(client, times(1)).listObjects(any(ListObjectsRequest.class));
+    }
+
+    @Test
+    public void iteratorPrefetchTheNextPage() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        MockBucket mocket = client.bucket("bucketD");
+        for (int i = 0; i < 1050; i++)
+            mocket.file(String.format("file-%04d", i));
+
+        S3FileSystem s3FileSystem = (S3FileSystem) FileSystems.getFileSystem(endpoint);
+        S3Iterator iterator = new S3Iterator(s3FileSystem.getPath("/bucketD"));
+        assertEquals("file-0000", iterator.next().getFileName().toString());
+        // the second page is requested before the first one is consumed
+        verify(client, timeout(1000).times(1)).listNextBatchOfObjects(any(ObjectListing.class));
+
+        int count = 1;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        assertEquals(1050, count);
+        verify(client, times(1)).listNextBatchOfObjects(any(ObjectListing.class));
+    }
+
     @Test(expected = UnsupportedOperationException.class)
     public void remove() throws IOException {
         AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
@@ -0,0 +1,61 @@
+package com.upplication.s3fs;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+public class S3ObjectFilterTest {
+
+    @Test
+    public void acceptAll() {
+        S3ObjectFilter filter = new S3ObjectFilter();
+        assertTrue(filter.accept(summary("dir/file", 10, new Date())));
+        assertTrue(filter.accept(summary("dir/sub/", 0, null)));
+        assertTrue(filter.acceptDirectory("dir/sub"));
+    }
+
+    @Test
+    public void nameIsTheLastSegment() {
+        S3ObjectFilter filter = new S3ObjectFilter().withNamePrefix("app").withNameSuffix(".gz");
+        assertTrue(filter.accept(summary("logs/app-1.gz", 10, new Date())));
+        assertFalse(filter.accept(summary("app/file.gz", 10, new Date())));
+        assertFalse(filter.accept(summary("logs/app-1.txt", 10, new Date())));
+        assertTrue(filter.acceptDirectory("logs/app.gz/"));
+    }
+
+    @Test
+    public void sizeRangeIsInclusive() {
+        S3ObjectFilter filter = new S3ObjectFilter().withSize(10, 20);
+        assertTrue(filter.accept(summary("file", 10, null)));
+        assertTrue(filter.accept(summary("file", 20, null)));
+        assertFalse(filter.accept(summary("file", 9, null)));
+        assertFalse(filter.accept(summary("file", 21, null)));
+        assertFalse(filter.acceptDirectory("dir/"));
+    }
+
+    @Test
+    public void lastModifiedRange() {
+        Date from = new Date(1000);
+        Date to = new Date(2000);
+        S3ObjectFilter filter = new S3ObjectFilter().withLastModified(from, to);
+        assertTrue(filter.accept(summary("file", 0, new Date(1000))));
+        assertFalse(filter.accept(summary("file", 0, new Date(2000))));
+        assertFalse(filter.accept(summary("file", 0, new Date(999))));
+        assertFalse(filter.accept(summary("file", 0, null)));
+        assertFalse(filter.acceptDirectory("dir"));
+        assertTrue(new S3ObjectFilter().withLastModified(null, to).accept(summary("file", 0, new Date(0))));
+    }
+
+    private S3ObjectSummary summary(String key, long size, Date lastModified) {
+        S3ObjectSummary summary = new S3ObjectSummary();
+        summary.setKey(key);
+        summary.setSize(size);
+        summary.setLastModified(lastModified);
+        return summary;
+    }
+}
@@ -0,0 +1,213 @@
+package com.upplication.s3fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.upplication.s3fs.util.AmazonS3ClientMock;
+import com.upplication.s3fs.util.AmazonS3MockFactory;
+import com.upplication.s3fs.util.MockBucket;
+import com.upplication.s3fs.util.S3EndpointConstant;
+
+public class S3PathMatcherTest extends S3UnitTestBase {
+
+    private FileSystem fs;
+    private AmazonS3ClientMock client;
+
+    @Before
+    public void setup() throws IOException {
+        client = AmazonS3MockFactory.getAmazonClientMock();
+        MockBucket bucket = client.bucket("bucketA");
+        bucket.file("logs/2023-12/app.gz", "logs/2024-01/app.gz", "logs/2024-01/app.txt", "logs/2024-02/app.gz",
+                "logs/2024-02/old/app.gz", "logs/2024-04/app.gz", "other/app.gz");
+        fs = FileSystems.newFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST, null);
+    }
+
+    @Test
+    public void globWildcards() {
+        assertMatches("glob:/bucketA/*.gz", "/bucketA/app.gz");
+        assertNotMatches("glob:/bucketA/*.gz", "/bucketA/logs/app.gz");
+        assertMatches("glob:/bucketA/**.gz", "/bucketA/logs/app.gz");
+        assertMatches("glob:/bucketA/app.?z", "/bucketA/app.gz");
+        assertNotMatches("glob:/bucketA/app?gz", "/bucketA/app/gz");
+        assertMatches("glob:/bucketA/2024-0[1-3]", "/bucketA/2024-02");
+        assertNotMatches("glob:/bucketA/2024-0[!1-3]", "/bucketA/2024-02");
+        assertMatches("glob:/bucketA/*.{gz,txt}", "/bucketA/app.txt");
+        assertNotMatches("glob:/bucketA/*.{gz,txt}", "/bucketA/app.log");
+        assertMatches("glob:/bucketA/\\*.gz", "/bucketA/*.gz");
+        assertNotMatches("glob:/bucketA/\\*.gz", "/bucketA/app.gz");
+    }
+
+    @Test
+    public void globMatchesRelativePaths() {
+        assertMatches("glob:*.gz", "app.gz");
+        assertNotMatches("glob:*.gz", "/bucketA/app.gz");
+    }
+
+    @Test
+    public void globDirectoryWithoutEndSlash() {
+        assertMatches("glob:/bucketA/dir", "/bucketA/dir/");
+    }
+
+    @Test
+    public void regex() {
+        assertMatches("regex:/bucketA/logs/2024-0[1-3]/.*\\.gz", "/bucketA/logs/2024-01/app.gz");
+        assertNotMatches("regex:/bucketA/logs/2024-0[1-3]/.*\\.gz", "/bucketA/logs/2024-04/app.gz");
+    }
+
+    @Test
+    public void literalPrefix() {
+        assertEquals("/bucketA/logs/2024-0", new S3PathMatcher("glob:/bucketA/logs/2024-0[1-3]/*.gz").getLiteralPrefix());
+        assertEquals("/bucketA/logs/*", new S3PathMatcher("glob:/bucketA/logs/\\*").getLiteralPrefix());
+        assertEquals("", new S3PathMatcher("glob:**.gz").getLiteralPrefix());
+        assertEquals("", new S3PathMatcher("regex:/bucketA/logs/.*").getLiteralPrefix());
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void globMissingBracket() {
+        new S3PathMatcher("glob:/bucketA/[a-z");
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void globNestedGroups() {
+        new S3PathMatcher("glob:/bucketA/{a,{b,c}}");
+    }
+
+    @Test
+    public void newDirectoryStreamListOnlyTheLiteralPrefix() throws IOException {
+        PathMatcher matcher = fs.getPathMatcher("glob:/bucketA/logs/2024-0[1-3]");
+        reset(client);
+
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(fs.getPath("/bucketA/logs"), (DirectoryStream.Filter<Path>) matcher)) {
+            for (Path path : stream)
+                names.add(path.getFileName().toString());
+        }
+
+        assertEquals(Arrays.asList("2024-01", "2024-02"), names);
+        ArgumentCaptor<ListObjectsRequest> request = ArgumentCaptor.forClass(ListObjectsRequest.class);
+        verify(client).listObjects(request.capture());
+        assertEquals("logs/2024-0", request.getValue().getPrefix());
+        assertEquals("/", request.getValue().getDelimiter());
+    }
+
+    @Test
+    public void newDirectoryStreamListTheKeyEqualToTheLiteralPrefix() throws IOException {
+        PathMatcher matcher = fs.getPathMatcher("glob:/bucketA/logs/2024-01/app.gz");
+        reset(client);
+
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(fs.getPath("/bucketA/logs/2024-01"), (DirectoryStream.Filter<Path>) matcher)) {
+            for (Path path : stream)
+                names.add(path.getFileName().toString());
+        }
+
+        assertEquals(Arrays.asList("app.gz"), names);
+        ArgumentCaptor<ListObjectsRequest> request = ArgumentCaptor.forClass(ListObjectsRequest.class);
+        verify(client).listObjects(request.capture());
+        assertEquals("logs/2024-01/app.gz", request.getValue().getPrefix());
+        assertEquals("logs/2024-01/", request.getValue().getMarker());
+    }
+
+    @Test
+    public void walkListTheKeyEqualToTheLiteralPrefix() throws IOException {
+        PathMatcher matcher = fs.getPathMatcher("glob:/bucketA/logs/2024-01/app.gz");
+
+        List<String> keys = new ArrayList<>();
+        try (DirectoryStream<Path> stream = S3Walker.walk(fs.getPath("/bucketA/logs"), matcher)) {
+            for (Path path : stream)
+                keys.add(((S3Path) path).getKey());
+        }
+
+        assertEquals(Arrays.asList("logs/2024-01/app.gz"), keys);
+    }
+
+    @Test
+    public void walkListOnlyTheLiteralPrefix() throws IOException {
+        PathMatcher matcher = fs.getPathMatcher("glob:/bucketA/logs/2024-0[1-3]/*.gz");
+        reset(client);
+
+        List<String> keys = new ArrayList<>();
+        try (DirectoryStream<Path> stream = S3Walker.walk(fs.getPath("/bucketA"), matcher)) {
+            for (Path path : stream)
+                keys.add(((S3Path) path).getKey());
+        }
+
+        assertEquals(Arrays.asList("logs/2024-01/app.gz", "logs/2024-02/app.gz"), keys);
+        ArgumentCaptor<ListObjectsRequest> request = ArgumentCaptor.forClass(ListObjectsRequest.class);
+        verify(client).listObjects(request.capture());
+        assertEquals("logs/2024-0", request.getValue().getPrefix());
+    }
+
+    @Test
+    public void walkSingleLevelGlobUseDelimiter() throws IOException {
+        PathMatcher matcher = fs.getPathMatcher("glob:/bucketA/logs/2024-02/*.gz");
+        reset(client);
+
+        List<String> keys = new ArrayList<>();
+        try (DirectoryStream<Path> stream = S3Walker.walk(fs.getPath("/bucketA/logs"), matcher)) {
+            for (Path path : stream)
+                keys.add(((S3Path) path).getKey());
+        }
+
+        assertEquals(Arrays.asList("logs/2024-02/app.gz"), keys);
+        ArgumentCaptor<ListObjectsRequest> request = ArgumentCaptor.forClass(ListObjectsRequest.class);
+        verify(client).listObjects(request.capture());
+        assertEquals("logs/2024-02/", request.getValue().getPrefix());
+        assertEquals("/", request.getValue().getDelimiter());
+    }
+
+    @Test
+    public void walkWithOtherMatcherListAllTheDescendants() throws IOException {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:**.txt");
+        reset(client);
+
+        List<String> keys = new ArrayList<>();
+        try (DirectoryStream<Path> stream = S3Walker.walk(fs.getPath("/bucketA/logs"), matcher)) {
+            for (Path path : stream)
+                keys.add(((S3Path) path).getKey());
+        }
+
+        assertEquals(Arrays.asList("logs/2024-01/app.txt"), keys);
+        ArgumentCaptor<ListObjectsRequest> request = ArgumentCaptor.forClass(ListObjectsRequest.class);
+        verify(client).listObjects(request.capture());
+        assertEquals("logs/", request.getValue().getPrefix());
+    }
+
+    @Test
+    public void newDirectoryStreamHonorTheFilter() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(fs.getPath("/bucketA/logs"), "2024-0[2-9]")) {
+            for (Path path : stream)
+                names.add(path.getFileName().toString());
+        }
+        assertEquals(Arrays.asList("2024-02", "2024-04"), names);
+    }
+
+    private void assertMatches(String syntaxAndPattern, String path) {
+        assertTrue(syntaxAndPattern + " should match " + path, fs.getPathMatcher(syntaxAndPattern).matches(fs.getPath(path)));
+    }
+
+    private void assertNotMatches(String syntaxAndPattern, String path) {
+        assertFalse(syntaxAndPattern + " should not match " + path, fs.getPathMatcher(syntaxAndPattern).matches(fs.getPath(path)));
+    }
+}
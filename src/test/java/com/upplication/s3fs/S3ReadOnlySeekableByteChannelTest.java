@@ -0,0 +1,141 @@
+package com.upplication.s3fs;
+
+import static com.upplication.s3fs.AmazonS3Factory.ACCESS_KEY;
+import static com.upplication.s3fs.AmazonS3Factory.SECRET_KEY;
+import static com.upplication.s3fs.S3FileSystemProvider.IN_MEMORY_THRESHOLD;
+import static com.upplication.s3fs.S3FileSystemProvider.READ_AHEAD_MAX;
+import static com.upplication.s3fs.S3FileSystemProvider.READ_AHEAD_MIN;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.google.common.collect.ImmutableMap;
+import com.upplication.s3fs.util.AmazonS3ClientMock;
+import com.upplication.s3fs.util.AmazonS3MockFactory;
+import com.upplication.s3fs.util.S3EndpointConstant;
+
+public class S3ReadOnlySeekableByteChannelTest extends S3UnitTestBase {
+
+    private S3FileSystem fileSystem;
+    private byte[] content;
+
+    @Before
+    public void setup() throws IOException {
+        fileSystem = (S3FileSystem) getS3fsProvider().newFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST,
+                ImmutableMap.<String, Object>of(READ_AHEAD_MIN, "4", READ_AHEAD_MAX, "16", IN_MEMORY_THRESHOLD, "0"));
+        content = new byte[64];
+        for (int i = 0; i < content.length; i++)
+            content[i] = (byte) i;
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1", content);
+    }
+
+    @Test
+    public void sequentialReadsGrowTheWindow() throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(fileSystem.getPath("/buck/file1"))) {
+            ByteBuffer buffer = ByteBuffer.allocate(4);
+            while (channel.read(buffer) > 0) {
+                result.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            // windows of 4, 8, 16, 16, 16 and the last 4 bytes
+            assertEquals(6, channel.getStatistics().getRequests());
+            assertEquals(64, channel.getStatistics().getBytesFetched());
+            assertEquals(64, channel.getStatistics().getBytesConsumed());
+            assertEquals(16, channel.getWindow());
+        }
+        assertArrayEquals(content, result.toByteArray());
+    }
+
+    @Test
+    public void randomSeekShrinksTheWindow() throws IOException {
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(fileSystem.getPath("/buck/file1"))) {
+            ByteBuffer buffer = ByteBuffer.allocate(4);
+            for (int i = 0; i < 3; i++) {
+                channel.read(buffer);
+                buffer.clear();
+            }
+            assertEquals(8, channel.getWindow());
+
+            channel.position(40);
+            channel.read(buffer);
+            assertEquals(4, channel.getWindow());
+            assertArrayEquals(new byte[]{40, 41, 42, 43}, buffer.array());
+            assertEquals(16, channel.getStatistics().getBytesConsumed());
+            assertEquals(16, channel.getStatistics().getBytesFetched());
+        }
+    }
+
+    @Test
+    public void seekInsideTheWindowDoesntFetch() throws IOException {
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(fileSystem.getPath("/buck/file1"))) {
+            ByteBuffer buffer = ByteBuffer.allocate(4);
+            channel.read(buffer);
+            reset(AmazonS3MockFactory.getAmazonClientMock());
+
+            buffer.clear();
+            channel.position(1);
+            channel.read(buffer);
+            assertArrayEquals(new byte[]{1, 2, 3}, new byte[]{buffer.get(0), buffer.get(1), buffer.get(2)});
+            verify(AmazonS3MockFactory.getAmazonClientMock(), never()).getObject(any(GetObjectRequest.class));
+        }
+    }
+
+    @Test
+    public void readWithBigBufferFetchOnce() throws IOException {
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(fileSystem.getPath("/buck/file1"))) {
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            assertEquals(16, channel.read(buffer));
+            assertEquals(1, channel.getStatistics().getRequests());
+        }
+    }
+
+    @Test
+    public void openOnlyFetchTheFirstWindowAndTheRestUnderTheThreshold() throws IOException {
+        S3FileSystem inMemory = (S3FileSystem) getS3fsProvider().newFileSystem(URI.create("s3://endpoint1/"),
+                ImmutableMap.<String, Object>builder().put(ACCESS_KEY, "access_key").put(SECRET_KEY, "secret_key")
+                        .put(READ_AHEAD_MIN, "4").put(READ_AHEAD_MAX, "16").put(IN_MEMORY_THRESHOLD, "32").build());
+        try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(inMemory.getPath("/buck/file1"))) {
+            assertEquals(64, channel.size());
+            assertEquals(1, channel.getStatistics().getRequests());
+            assertEquals(4, channel.getStatistics().getBytesFetched());
+
+            // the footer is the rest of the object
+            ByteBuffer buffer = ByteBuffer.allocate(2);
+            channel.position(60);
+            channel.read(buffer);
+            assertArrayEquals(new byte[]{60, 61}, buffer.array());
+            buffer.clear();
+            channel.read(buffer);
+            assertArrayEquals(new byte[]{62, 63}, buffer.array());
+            assertEquals(2, channel.getStatistics().getRequests());
+            assertEquals(8, channel.getStatistics().getBytesFetched());
+        }
+    }
+
+    @Test
+    public void statisticsAreAccumulatedInTheFileSystem() throws IOException {
+        fileSystem.getReadStatistics().reset();
+        for (int i = 0; i < 2; i++) {
+            try (S3ReadOnlySeekableByteChannel channel = new S3ReadOnlySeekableByteChannel(fileSystem.getPath("/buck/file1"))) {
+                channel.read(ByteBuffer.allocate(2));
+            }
+        }
+        assertEquals(2, fileSystem.getReadStatistics().getRequests());
+        assertEquals(8, fileSystem.getReadStatistics().getBytesFetched());
+        assertEquals(4, fileSystem.getReadStatistics().getBytesConsumed());
+    }
+}
@@ -1,23 +1,42 @@
 package com.upplication.s3fs;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.lang.reflect.Field;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.EnumSet;
 
 import com.upplication.s3fs.util.S3EndpointConstant;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.HeadBucketRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.UploadPartRequest;
 
 import com.upplication.s3fs.util.AmazonS3ClientMock;
 import com.upplication.s3fs.util.AmazonS3MockFactory;
@@ -69,13 +88,332 @@ public class S3SeekableByteChannelTest extends S3UnitTestBase {
         verify(channel, times(1)).sync();
     }
 
+    @Test
+    public void readOnlyDontCreateTempFile() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1", "content".getBytes());
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        S3SeekableByteChannel channel = new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.READ));
+        assertNull(channel.getTempFile());
+        assertEquals(7, channel.size());
+        channel.close();
+    }
+
+    @Test
+    public void readOnlySmallObjectWithSingleRequest() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1", "content".getBytes());
+
+        reset(client);
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        try (S3SeekableByteChannel channel = new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.READ))) {
+            channel.position(3);
+            channel.read(buffer);
+            assertEquals(7, channel.position());
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        }
+        assertArrayEquals("tent".getBytes(), buffer.array());
+
+        ArgumentCaptor<GetObjectRequest> request = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(client, times(1)).getObject(request.capture());
+        verify(client, never()).getObjectMetadata(anyString(), anyString());
+        assertArrayEquals(new long[]{0, S3ReadOnlySeekableByteChannel.DEFAULT_READ_AHEAD_MIN - 1}, request.getValue().getRange());
+    }
+
+    @Test
+    public void readAllBytesWithSingleRequest() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1", "{\"id\": 1}".getBytes());
+        reset(client);
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        assertArrayEquals("{\"id\": 1}".getBytes(), Files.readAllBytes(file1));
+
+        verify(client, times(1)).getObject(any(GetObjectRequest.class));
+        verify(client, never()).getObjectMetadata(anyString(), anyString());
+    }
+
+    @Test
+    public void readOnlyEmptyObject() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1", new byte[0]);
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        try (S3SeekableByteChannel channel = new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.READ))) {
+            assertEquals(0, channel.size());
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    @Test
+    public void readWithoutChangesDoesntUpload() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1", "content".getBytes());
+        reset(client);
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        S3SeekableByteChannel channel = spy(new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.READ)));
+        channel.read(ByteBuffer.allocate(7));
+        channel.close();
+
+        verify(channel, never()).sync();
+        verify(client, never()).putObject(anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class));
+    }
+
+    @Test
+    public void rewriteTheSameContentDoesntUpload() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1", "content".getBytes());
+        reset(client);
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        try (S3SeekableByteChannel channel = new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.WRITE))) {
+            channel.write(ByteBuffer.wrap("content".getBytes()));
+        }
+
+        verify(client, never()).putObject(anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class));
+    }
+
+    @Test
+    public void writeChangesUpload() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1", "content".getBytes());
+        reset(client);
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        try (S3SeekableByteChannel channel = new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.WRITE))) {
+            channel.truncate(4);
+        }
+
+        verify(client, times(1)).putObject(eq("buck"), eq("file1"), any(InputStream.class), any(ObjectMetadata.class));
+        assertArrayEquals("cont".getBytes(), Files.readAllBytes(file1));
+    }
+
+    @Test
+    public void writeSmallObjectWithoutTempFile() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1", "content".getBytes());
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        try (S3SeekableByteChannel channel = new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.READ))) {
+            channel.position(7);
+            channel.write(ByteBuffer.wrap("-more".getBytes()));
+            channel.position(0);
+            ByteBuffer buffer = ByteBuffer.allocate(12);
+            assertEquals(12, channel.read(buffer));
+            assertArrayEquals("content-more".getBytes(), buffer.array());
+            assertNull(channel.getTempFile());
+        }
+        assertArrayEquals("content-more".getBytes(), Files.readAllBytes(file1));
+    }
+
+    @Test
+    public void writeGrowsPastTheThresholdSpillToTempFile() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1", "content".getBytes());
+        byte[] big = new byte[S3SeekableByteChannel.DEFAULT_IN_MEMORY_THRESHOLD];
+        Arrays.fill(big, (byte) 'x');
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        Path tempFile;
+        try (S3SeekableByteChannel channel = new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.APPEND))) {
+            channel.write(ByteBuffer.wrap(big));
+            tempFile = channel.getTempFile();
+            assertNotNull(tempFile);
+            assertEquals(7 + big.length, Files.size(tempFile));
+        }
+        assertTrue(Files.notExists(tempFile));
+        byte[] content = Files.readAllBytes(file1);
+        assertEquals(7 + big.length, content.length);
+        assertArrayEquals("content".getBytes(), Arrays.copyOf(content, 7));
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void readOnlyNotExists() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck");
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.READ));
+    }
+
+    @Test(expected = NonWritableChannelException.class)
+    public void readOnlyCantWrite() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1");
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        try (S3SeekableByteChannel channel = new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.READ))) {
+            channel.write(ByteBuffer.wrap("hoi".getBytes()));
+        }
+    }
+
     @Test(expected = FileAlreadyExistsException.class)
     public void alreadyExists() throws IOException {
         AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
         client.bucket("buck").file("file1");
 
         S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
-        new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW));
+        // checked by the conditional PUT
+        new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)).close();
+    }
+
+    @Test
+    public void createNewIsExclusive() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck");
+        reset(client);
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        S3SeekableByteChannel first = new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW));
+        S3SeekableByteChannel second = new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW));
+        verifyZeroInteractions(client);
+        first.write(ByteBuffer.wrap("first".getBytes()));
+        second.write(ByteBuffer.wrap("second".getBytes()));
+
+        first.close();
+        try {
+            second.close();
+            fail("The second writer must not replace the object");
+        } catch (FileAlreadyExistsException e) {
+            // expected
+        }
+        assertArrayEquals("first".getBytes(), Files.readAllBytes(file1));
+    }
+
+    @Test
+    public void openWithSingleRequest() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1", "content".getBytes());
+        reset(client);
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        try (S3SeekableByteChannel channel = new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.READ))) {
+            assertEquals(7, channel.size());
+
+            verify(client, times(1)).getObject("buck", "file1");
+            verify(client, never()).getObjectMetadata(anyString(), anyString());
+            verify(client, never()).listObjects(any(ListObjectsRequest.class));
+            verify(client, never()).listBuckets();
+            verify(client, never()).headBucket(any(HeadBucketRequest.class));
+        }
+    }
+
+    @Test
+    public void openNotExistsWithCreateWithSingleRequest() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck");
+        reset(client);
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        try (S3SeekableByteChannel channel = new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE))) {
+            assertEquals(0, channel.size());
+
+            verify(client, times(1)).getObject("buck", "file1");
+            verify(client, never()).listObjects(any(ListObjectsRequest.class));
+        }
+        assertArrayEquals(new byte[0], Files.readAllBytes(file1));
+    }
+
+    @Test
+    public void openWithCreateAndTruncateWithoutRequests() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1", "content".getBytes());
+        reset(client);
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        try (S3SeekableByteChannel channel = new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            verifyZeroInteractions(client);
+            channel.write(ByteBuffer.wrap("hoi".getBytes()));
+        }
+        assertArrayEquals("hoi".getBytes(), Files.readAllBytes(file1));
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void openNotExistsWithoutCreate() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck");
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.READ));
+    }
+
+    @Test
+    public void appendWithoutDownload() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        byte[] existing = new byte[S3OutputStream.MIN_PART_SIZE];
+        Arrays.fill(existing, (byte) 'x');
+        client.bucket("buck").file("file1", existing);
+        reset(client);
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        try (S3SeekableByteChannel channel = new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.APPEND))) {
+            assertEquals(existing.length, channel.position());
+            channel.write(ByteBuffer.wrap("tail".getBytes()));
+            assertEquals(existing.length + 4, channel.size());
+            assertNull(channel.getTempFile());
+        }
+
+        verify(client, never()).getObject(any(GetObjectRequest.class));
+        verify(client, times(1)).copyPart(any(CopyPartRequest.class));
+        ArgumentCaptor<UploadPartRequest> part = ArgumentCaptor.forClass(UploadPartRequest.class);
+        verify(client, times(1)).uploadPart(part.capture());
+        assertEquals(4, part.getValue().getPartSize());
+        verify(client, never()).putObject(anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class));
+        byte[] content = Files.readAllBytes(file1);
+        assertEquals(existing.length + 4, content.length);
+        assertArrayEquals("tail".getBytes(), Arrays.copyOfRange(content, existing.length, content.length));
+        assertTrue(client.getMultipartUploads().isEmpty());
+    }
+
+    @Test
+    public void appendNothingDoesntUpload() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1", new byte[S3OutputStream.MIN_PART_SIZE]);
+        reset(client);
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.APPEND)).close();
+
+        verify(client, never()).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+        verify(client, never()).putObject(anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class));
+    }
+
+    @Test
+    public void appendToReplacedObjectFails() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1", new byte[S3OutputStream.MIN_PART_SIZE]);
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        S3SeekableByteChannel channel = new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.APPEND));
+        client.putObject("buck", "file1", new ByteArrayInputStream("replaced".getBytes()), new ObjectMetadata());
+        channel.write(ByteBuffer.wrap("tail".getBytes()));
+        try {
+            channel.close();
+            fail("The append must fail");
+        } catch (IOException e) {
+            // expected
+        }
+        assertArrayEquals("replaced".getBytes(), Files.readAllBytes(file1));
+        assertTrue(client.getMultipartUploads().isEmpty());
+    }
+
+    @Test
+    public void appendSmallObject() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("buck").file("file1", "content".getBytes());
+        reset(client);
+
+        S3Path file1 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file1");
+        try (S3SeekableByteChannel channel = new S3SeekableByteChannel(file1, EnumSet.of(StandardOpenOption.APPEND))) {
+            channel.write(ByteBuffer.wrap("-tail".getBytes()));
+        }
+
+        verify(client, never()).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+        assertArrayEquals("content-tail".getBytes(), Files.readAllBytes(file1));
     }
 
     @Test(expected = RuntimeException.class)
@@ -89,13 +427,12 @@ public class S3SeekableByteChannelTest extends S3UnitTestBase {
     }
 
     @Test(expected = NoSuchFileException.class)
-    public void tempFileDisappeared() throws IOException, NoSuchFieldException, SecurityException, IllegalArgumentException, IllegalAccessException {
+    public void tempFileDisappeared() throws IOException {
         S3Path file2 = (S3Path) FileSystems.getFileSystem(S3EndpointConstant.S3_GLOBAL_URI_TEST).getPath("/buck/file2");
         S3SeekableByteChannel channel = new S3SeekableByteChannel(file2, EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.READ));
-        Field f = channel.getClass().getDeclaredField("tempFile");
-        f.setAccessible(true);
-        Path tempFile = (Path) f.get(channel);
-        Files.delete(tempFile);
+        // only the content greater than the threshold is moved to a temp file
+        channel.write(ByteBuffer.allocate(S3SeekableByteChannel.DEFAULT_IN_MEMORY_THRESHOLD + 1));
+        Files.delete(channel.getTempFile());
         channel.close();
     }
 }
\ No newline at end of file
@@ -2,8 +2,9 @@ package com.upplication.s3fs;
 
 
 import com.amazonaws.services.s3.model.AmazonS3Exception;
-import com.amazonaws.services.s3.model.Owner;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
 import com.upplication.s3fs.util.AmazonS3ClientMock;
 import com.upplication.s3fs.util.AmazonS3MockFactory;
 import com.upplication.s3fs.util.S3EndpointConstant;
@@ -20,7 +21,10 @@ import java.nio.file.StandardOpenOption;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
-import static org.mockito.Mockito.doThrow;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
 
 public class S3UtilsTest extends S3UnitTestBase {
     private S3FileSystem fileSystem = null;
@@ -42,16 +46,27 @@ public class S3UtilsTest extends S3UnitTestBase {
         outputStream.close();
         S3ObjectSummary file1ObjectSummary = getS3ObjectSummary(file1);
         assertEquals("bucket", file1ObjectSummary.getBucketName());
-        assertEquals(null, file1ObjectSummary.getETag());
+        assertEquals(BinaryUtils.toHex(Md5Utils.computeMD5Hash(contentString.getBytes())), file1ObjectSummary.getETag());
         assertEquals("file1", file1ObjectSummary.getKey());
         assertNotNull(file1ObjectSummary.getLastModified());
-        Owner owner = file1ObjectSummary.getOwner();
-        assertNotNull(owner);
-        assertEquals("Mock", owner.getDisplayName());
-        assertEquals("1", owner.getId());
+        assertNull(file1ObjectSummary.getOwner());
         assertEquals(19, file1ObjectSummary.getSize());
     }
 
+    @Test
+    public void getS3ObjectSummaryDontFetchAcl() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("bucket").file("file1", "content".getBytes());
+        S3Path file1 = fileSystem.getPath("/bucket", "file1");
+        reset(client);
+
+        assertTrue(Files.exists(file1));
+        assertEquals(7, Files.size(file1));
+
+        verify(client, never()).getObjectAcl(anyString(), anyString());
+        verify(client, atLeastOnce()).getObjectMetadata("bucket", "file1");
+    }
+
 
     @Test(expected = NoSuchFileException.class)
     public void getS3ObjectSummary404() throws IOException {
@@ -65,7 +80,7 @@ public class S3UtilsTest extends S3UnitTestBase {
         AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
         AmazonS3Exception toBeThrown = new AmazonS3Exception("We messed up");
         toBeThrown.setStatusCode(500);
-        doThrow(toBeThrown).when(client).getObjectAcl("bucket", "file2");
+        doThrow(toBeThrown).when(client).getObjectMetadata("bucket", "file2");
         S3Path root = fileSystem.getPath("/bucket");
         S3Path file2 = (S3Path) root.resolve("file2");
         Files.createFile(file2);
@@ -3,7 +3,13 @@ package com.upplication.s3fs;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import java.io.IOException;
 import java.net.URI;
@@ -11,6 +17,9 @@ import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.google.common.collect.ImmutableMap;
 import com.upplication.s3fs.util.S3EndpointConstant;
 import org.junit.Before;
 import org.junit.Test;
@@ -235,4 +244,184 @@ public class S3WalkerTest extends S3UnitTestBase {
         Files.walkFileTree(folder, visitor);
         assertEquals(Arrays.asList("file1.1", "file1.2", "file3.1", "file4.1"), visitation);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void parallelWalkFileTreeSameOrderThanFilesWalkFileTree() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        MockBucket mocket = client.bucket("/tree");
+        mocket.dir("folder", "folder/subfolder1", "folder/subfolder1/empty");
+        mocket.file("folder/file0", "folder/subfolder1/file1.1", "folder/subfolder1/file1.2", "folder/subfolder1/deep/file1.3");
+        mocket.file("folder/subfolder2/file2.1", "folder/subfolder2/deep/deeper/file2.2", "folder/subfolder3/file3.1");
+
+        S3Path folder = (S3Path) Paths.get(URI.create(S3EndpointConstant.S3_GLOBAL_URI_TEST + "tree/folder"));
+        RegisteringVisitor registrar = new RegisteringVisitor();
+        Files.walkFileTree(folder, registrar);
+
+        Iterator<String> iterator = registrar.getVisitOrder().iterator();
+        S3Walker.walkFileTree(folder, new CheckVisitor(iterator));
+        assertFalse("Iterator should have been  exhausted.", iterator.hasNext());
+    }
+
+    @Test
+    public void parallelWalkFileTreeMaxDepth() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        MockBucket mocket = client.bucket("/tree");
+        mocket.file("folder/file0", "folder/subfolder1/file1.1", "folder/subfolder1/deep/file1.2", "folder/subfolder2/file2.1");
+
+        S3Path folder = (S3Path) Paths.get(URI.create(S3EndpointConstant.S3_GLOBAL_URI_TEST + "tree/folder"));
+        for (int maxDepth = 0; maxDepth < 4; maxDepth++) {
+            RegisteringVisitor registrar = new RegisteringVisitor();
+            Files.walkFileTree(folder, Collections.<FileVisitOption>emptySet(), maxDepth, registrar);
+
+            Iterator<String> iterator = registrar.getVisitOrder().iterator();
+            S3Walker.walkFileTree(folder, Collections.<FileVisitOption>emptySet(), maxDepth, new CheckVisitor(iterator));
+            assertFalse("Iterator should have been  exhausted.", iterator.hasNext());
+        }
+    }
+
+    @Test
+    public void parallelWalkFileTreeListEverySubfolderOnce() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        MockBucket mocket = client.bucket("/tree");
+        for (int i = 0; i < 10; i++)
+            mocket.file("folder/subfolder" + i + "/deep/file" + i, "folder/subfolder" + i + "/file" + i);
+
+        S3Path folder = (S3Path) Paths.get(URI.create(S3EndpointConstant.S3_GLOBAL_URI_TEST + "tree/folder"));
+        reset(client);
+        RegisteringVisitor registrar = new RegisteringVisitor();
+        S3Walker.walkFileTree(folder, registrar);
+
+        // start + 10 * (subfolder + deep): pre and post, and 20 files
+        assertEquals(2 + 10 * 4 + 20, registrar.getVisitOrder().size());
+        // the virtual start folder is resolved with a listing, then one for every folder
+        verify(client, times(22)).listObjects(any(ListObjectsRequest.class));
+        verify(client, never()).getObjectMetadata(anyString(), eq("folder/subfolder0/file0"));
+    }
+
+    @Test(timeout = 60000)
+    public void parallelWalkFileTreeWithLessConnectionsThanTruncatedListings() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        MockBucket mocket = client.bucket("/tree");
+        for (int i = 0; i < 2 * 1500; i++)
+            mocket.file("folder/subfolder" + (i % 2) + "/file" + i);
+
+        FileSystem fileSystem = getS3fsProvider().newFileSystem(URI.create("s3://endpoint1/"), ImmutableMap.<String, Object>builder()
+                .put(AmazonS3Factory.MAX_CONNECTIONS, "2")
+                .build());
+        Path folder = fileSystem.getPath("/tree/folder");
+        RegisteringVisitor registrar = new RegisteringVisitor();
+        S3Walker.walkFileTree(folder, registrar);
+
+        // start + 2 subfolders: pre and post, and the files
+        assertEquals(2 + 2 * 2 + 2 * 1500, registrar.getVisitOrder().size());
+    }
+
+    @Test
+    public void parallelSkippingWalk() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        MockBucket mocket = client.bucket("/tree");
+        mocket.dir("folder", "folder/subfolder1");
+        mocket.file("folder/subfolder1/file1.1", "folder/subfolder1/file1.2");
+        mocket.file("folder/subfolder2/file2.1", "folder/subfolder2/file2.2");
+        mocket.file("folder/subfolder3/file3.1", "folder/subfolder3/file3.2");
+        mocket.file("folder/subfolder4/file4.1", "folder/subfolder4/file4.2");
+
+        S3Path folder = (S3Path) Paths.get(URI.create(S3EndpointConstant.S3_GLOBAL_URI_TEST + "tree/folder"));
+        final List<String> visitation = new ArrayList<>();
+        S3Walker.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (dir.getFileName().toString().equals("subfolder2"))
+                    return FileVisitResult.SKIP_SUBTREE;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String name = file.getFileName().toString();
+                visitation.add(name);
+                if (name.equals("file3.1"))
+                    return FileVisitResult.SKIP_SIBLINGS;
+                if (name.equals("file4.1"))
+                    return FileVisitResult.TERMINATE;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        assertEquals(Arrays.asList("file1.1", "file1.2", "file3.1", "file4.1"), visitation);
+    }
+
+    @Test
+    public void parallelWalkNotExists() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        client.bucket("/tree");
+        S3Path folder = (S3Path) Paths.get(URI.create(S3EndpointConstant.S3_GLOBAL_URI_TEST + "tree/folder"));
+        RegisteringVisitor registrar = new RegisteringVisitor();
+        Files.walkFileTree(folder, registrar);
+
+        Iterator<String> iterator = registrar.getVisitOrder().iterator();
+        S3Walker.walkFileTree(folder, new CheckVisitor(iterator));
+        assertFalse("Iterator should have been  exhausted.", iterator.hasNext());
+    }
+
+    @Test
+    public void walkReturnAllTheDescendants() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        MockBucket mocket = client.bucket("/tree");
+        mocket.dir("folder", "folder/subfolder1", "folder/subfolder1/empty");
+        mocket.file("folder/file0", "folder/subfolder1/file1.1", "folder/subfolder2/deep/file2.1", "folder2/file");
+
+        S3Path folder = (S3Path) Paths.get(URI.create(S3EndpointConstant.S3_GLOBAL_URI_TEST + "tree/folder"));
+        List<String> keys = new ArrayList<>();
+        try (DirectoryStream<Path> stream = S3Walker.walk(folder)) {
+            for (Path path : stream)
+                keys.add(((S3Path) path).getKey());
+        }
+
+        assertEquals(Arrays.asList("folder/file0", "folder/subfolder1", "folder/subfolder1/empty", "folder/subfolder1/file1.1",
+                "folder/subfolder2", "folder/subfolder2/deep", "folder/subfolder2/deep/file2.1"), keys);
+    }
+
+    @Test
+    public void walkAttachTheAttributesAndListEvery1000Keys() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        MockBucket mocket = client.bucket("/tree");
+        for (int i = 0; i < 2500; i++)
+            mocket.file("folder/subfolder" + (i % 10) + "/file" + i, new byte[i % 7]);
+
+        S3Path folder = (S3Path) Paths.get(URI.create(S3EndpointConstant.S3_GLOBAL_URI_TEST + "tree/folder"));
+        reset(client);
+        int files = 0;
+        int directories = 0;
+        try (DirectoryStream<Path> stream = S3Walker.walk(folder)) {
+            for (Path path : stream) {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (attributes.isDirectory())
+                    directories++;
+                else
+                    files++;
+            }
+        }
+
+        assertEquals(2500, files);
+        assertEquals(10, directories);
+        verify(client, times(1)).listObjects(any(ListObjectsRequest.class));
+        verify(client, times(2)).listNextBatchOfObjects(any(ObjectListing.class));
+        verify(client, never()).getObjectMetadata(anyString(), anyString());
+    }
+
+    @Test
+    public void walkBucketRoot() throws IOException {
+        AmazonS3ClientMock client = AmazonS3MockFactory.getAmazonClientMock();
+        MockBucket mocket = client.bucket("/tree");
+        mocket.file("folder/file0", "file1");
+
+        S3Path root = (S3Path) Paths.get(URI.create(S3EndpointConstant.S3_GLOBAL_URI_TEST + "tree/"));
+        List<String> keys = new ArrayList<>();
+        try (DirectoryStream<Path> stream = S3Walker.walk(root)) {
+            for (Path path : stream)
+                keys.add(((S3Path) path).getKey());
+        }
+
+        assertEquals(Arrays.asList("file1", "folder", "folder/file0"), keys);
+    }
+}
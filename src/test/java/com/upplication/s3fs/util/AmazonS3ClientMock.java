@@ -18,6 +18,7 @@ package com.upplication.s3fs.util;
  */
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -25,11 +26,13 @@ import java.io.OutputStream;
 import java.net.URL;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
@@ -40,8 +43,11 @@ import com.amazonaws.services.s3.AbstractAmazonS3;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.S3ClientOptions;
 import com.amazonaws.services.s3.S3ResponseMetadata;
+import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.model.*;
 import com.amazonaws.services.s3.waiters.AmazonS3Waiters;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
 import com.amazonaws.util.StringUtils;
 import org.apache.http.MethodNotSupportedException;
 
@@ -63,6 +69,7 @@ public class AmazonS3ClientMock extends AbstractAmazonS3 {
 
     private Path base;
     private Map<String, Owner> bucketOwners = new HashMap<>();
+    private Map<String, MultipartUpload> multipartUploads = new ConcurrentHashMap<>();
 
     public AmazonS3ClientMock(Path base) {
         this.base = base;
@@ -89,7 +96,13 @@ public class AmazonS3ClientMock extends AbstractAmazonS3 {
         final TreeMap<String, S3Element> elems = new TreeMap<>();
         try {
             for (Path elem : Files.newDirectoryStream(bucket)) {
-                S3Element element = parse(elem, bucket);
+                S3Element element;
+                try {
+                    element = parse(elem, bucket);
+                } catch (NoSuchFileException e) {
+                    // deleted while listing
+                    continue;
+                }
                 if (!elems.containsKey(element.getS3Object().getKey()))
                     elems.put(element.getS3Object().getKey(), element);
             }
@@ -105,7 +118,8 @@ public class AmazonS3ClientMock extends AbstractAmazonS3 {
                 continue;
             String key = elem.getS3Object().getKey();
             if (waitForMarker) {
-                waitForMarker = !key.startsWith(marker);
+                // like S3 the marker is exclusive, the listing starts after it
+                waitForMarker = key.compareTo(marker) <= 0;
                 if (waitForMarker)
                     continue;
             }
@@ -173,7 +187,11 @@ public class AmazonS3ClientMock extends AbstractAmazonS3 {
         List<S3Element> elems = new ArrayList<>();
         try {
             for (Path elem : Files.newDirectoryStream(bucket)) {
-                elems.add(parse(elem, bucket));
+                try {
+                    elems.add(parse(elem, bucket));
+                } catch (NoSuchFileException e) {
+                    // deleted while listing
+                }
             }
         } catch (IOException e) {
             throw new AmazonClientException(e);
@@ -316,7 +334,11 @@ public class AmazonS3ClientMock extends AbstractAmazonS3 {
         if (bucket == null) {
             throw new AmazonServiceException("bucket not found, " + bucketName);
         }
-        return createAclPermission(bucket, bucketName);
+        try {
+            return createAclPermission(bucket, bucketName);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     @Override
@@ -475,8 +497,10 @@ public class AmazonS3ClientMock extends AbstractAmazonS3 {
             metadata.setContentLength(0);
             object.setObjectContent(null);
         } else {
+            byte[] content = Files.readAllBytes(elem);
             metadata.setContentLength(attr.size());
-            object.setObjectContent(new ByteArrayInputStream(Files.readAllBytes(elem)));
+            metadata.setHeader(Headers.ETAG, BinaryUtils.toHex(Md5Utils.computeMD5Hash(content)));
+            object.setObjectContent(new ByteArrayInputStream(content));
         }
 
         object.setObjectMetadata(metadata);
@@ -491,8 +515,9 @@ public class AmazonS3ClientMock extends AbstractAmazonS3 {
      * @param elem Path
      * @param bucketName String
      * @return AccessControlList never null
+     * @throws IOException if the attributes of the path cannot be read
      */
-    private AccessControlList createAclPermission(Path elem, String bucketName) {
+    private AccessControlList createAclPermission(Path elem, String bucketName) throws IOException {
         AccessControlList res = new AccessControlList();
         final Owner owner = getOwner(bucketName);
         res.setOwner(owner);
@@ -513,31 +538,27 @@ public class AmazonS3ClientMock extends AbstractAmazonS3 {
             }
         };
 
-        try {
-            Set<PosixFilePermission> permission = Files.readAttributes(elem, PosixFileAttributes.class).permissions();
-            for (PosixFilePermission posixFilePermission : permission) {
-                switch (posixFilePermission) {
-                    case GROUP_READ:
-                    case OTHERS_READ:
-                    case OWNER_READ:
-                        res.grantPermission(grant, Permission.Read);
-                        break;
-                    case OWNER_WRITE:
-                    case GROUP_WRITE:
-                    case OTHERS_WRITE:
-                        res.grantPermission(grant, Permission.Write);
-                        break;
-                    case OWNER_EXECUTE:
-                    case GROUP_EXECUTE:
-                    case OTHERS_EXECUTE:
-                        res.grantPermission(grant, Permission.WriteAcp);
-                        res.grantPermission(grant, Permission.ReadAcp);
-                        break;
+        Set<PosixFilePermission> permission = Files.readAttributes(elem, PosixFileAttributes.class).permissions();
+        for (PosixFilePermission posixFilePermission : permission) {
+            switch (posixFilePermission) {
+                case GROUP_READ:
+                case OTHERS_READ:
+                case OWNER_READ:
+                    res.grantPermission(grant, Permission.Read);
+                    break;
+                case OWNER_WRITE:
+                case GROUP_WRITE:
+                case OTHERS_WRITE:
+                    res.grantPermission(grant, Permission.Write);
+                    break;
+                case OWNER_EXECUTE:
+                case GROUP_EXECUTE:
+                case OTHERS_EXECUTE:
+                    res.grantPermission(grant, Permission.WriteAcp);
+                    res.grantPermission(grant, Permission.ReadAcp);
+                    break;
 
-                }
             }
-        }catch (IOException e) {
-            throw new RuntimeException(e);
         }
 
         return res;
@@ -623,6 +644,14 @@ public class AmazonS3ClientMock extends AbstractAmazonS3 {
                     }
                     return FileVisitResult.CONTINUE;
                 }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                    if (exc instanceof NoSuchFileException)
+                        // deleted while walking
+                        return FileVisitResult.CONTINUE;
+                    throw exc;
+                }
             });
             if (!matches.isEmpty())
                 return matches.iterator().next();
@@ -719,7 +748,12 @@ public class AmazonS3ClientMock extends AbstractAmazonS3 {
 
     @Override
     public HeadBucketResult headBucket(HeadBucketRequest headBucketRequest) throws AmazonClientException {
-        return null;
+        if (!doesBucketExist(headBucketRequest.getBucketName())) {
+            AmazonServiceException exception = new AmazonServiceException("bucket not found, " + headBucketRequest.getBucketName());
+            exception.setStatusCode(404);
+            throw exception;
+        }
+        return new HeadBucketResult().withBucketRegion("us-east-1");
     }
 
     public MockBucket bucket(String bucketName) throws IOException {
@@ -779,6 +813,7 @@ public class AmazonS3ClientMock extends AbstractAmazonS3 {
     }
 
     public void clear() {
+        multipartUploads.clear();
         try {
             Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
                 @Override
@@ -947,7 +982,37 @@ public class AmazonS3ClientMock extends AbstractAmazonS3 {
 
     @Override
     public S3Object getObject(GetObjectRequest getObjectRequest) throws AmazonClientException {
-        throw new UnsupportedOperationException();
+        S3Object object = getObject(getObjectRequest.getBucketName(), getObjectRequest.getKey());
+        List<String> matching = getObjectRequest.getMatchingETagConstraints();
+        if (!matching.isEmpty() && !matching.contains(object.getObjectMetadata().getETag()))
+            // the constraints are not met
+            return null;
+        long[] range = getObjectRequest.getRange();
+        if (range == null || object.getObjectContent() == null)
+            return object;
+        if (!object.getKey().equals(getObjectRequest.getKey())) {
+            // the ranged GET of "dir" doesnt fall back to the directory "dir/"
+            AmazonS3Exception amazonS3Exception = new AmazonS3Exception("not found with key: " + getObjectRequest.getKey());
+            amazonS3Exception.setStatusCode(404);
+            throw amazonS3Exception;
+        }
+        try {
+            byte[] content = IOUtils.toByteArray(object.getObjectContent());
+            if (range[0] >= content.length) {
+                AmazonS3Exception amazonS3Exception = new AmazonS3Exception("The requested range is not satisfiable");
+                amazonS3Exception.setStatusCode(416);
+                throw amazonS3Exception;
+            }
+            int end = (int) Math.min(range[1], content.length - 1);
+            byte[] slice = Arrays.copyOfRange(content, (int) range[0], end + 1);
+            ObjectMetadata metadata = object.getObjectMetadata();
+            metadata.setContentLength(slice.length);
+            metadata.setHeader(Headers.CONTENT_RANGE, "bytes " + range[0] + "-" + end + "/" + content.length);
+            object.setObjectContent(new ByteArrayInputStream(slice));
+            return object;
+        } catch (IOException e) {
+            throw new AmazonServiceException("Problem getting Mock Object: ", e);
+        }
     }
 
     @Override
@@ -967,17 +1032,57 @@ public class AmazonS3ClientMock extends AbstractAmazonS3 {
 
     @Override
     public PutObjectResult putObject(PutObjectRequest putObjectRequest) throws AmazonClientException {
-        throw new UnsupportedOperationException();
+        checkIfNoneMatch(putObjectRequest, putObjectRequest.getBucketName(), putObjectRequest.getKey());
+        if (putObjectRequest.getFile() != null)
+            return putObject(putObjectRequest.getBucketName(), putObjectRequest.getKey(), putObjectRequest.getFile());
+        return putObject(putObjectRequest.getBucketName(), putObjectRequest.getKey(), putObjectRequest.getInputStream(), putObjectRequest.getMetadata());
     }
 
     @Override
     public CopyObjectResult copyObject(CopyObjectRequest copyObjectRequest) throws AmazonClientException {
-        throw new UnsupportedOperationException();
+        checkIfNoneMatch(copyObjectRequest, copyObjectRequest.getDestinationBucketName(), copyObjectRequest.getDestinationKey());
+        return copyObject(copyObjectRequest.getSourceBucketName(), copyObjectRequest.getSourceKey(),
+                copyObjectRequest.getDestinationBucketName(), copyObjectRequest.getDestinationKey());
+    }
+
+    /**
+     * local stand-in of the conditional writes: with the header If-None-Match: * the request
+     * fails with 412 Precondition Failed if the key already exists
+     */
+    private void checkIfNoneMatch(AmazonWebServiceRequest request, String bucketName, String key) {
+        Map<String, String> headers = request.getCustomRequestHeaders();
+        if (headers == null || !"*".equals(headers.get(Headers.GET_OBJECT_IF_NONE_MATCH)))
+            return;
+        Path path = find(bucketName, key);
+        if (path != null && Files.exists(path)) {
+            AmazonS3Exception exception = new AmazonS3Exception("At least one of the pre-conditions you specified did not hold");
+            exception.setStatusCode(412);
+            exception.setErrorCode("PreconditionFailed");
+            throw exception;
+        }
     }
 
     @Override
     public CopyPartResult copyPart(CopyPartRequest copyPartRequest) throws AmazonClientException {
-        throw new UnsupportedOperationException();
+        MultipartUpload upload = getMultipartUpload(copyPartRequest.getUploadId());
+        S3Object source = getObject(copyPartRequest.getSourceBucketName(), copyPartRequest.getSourceKey());
+        List<String> matching = copyPartRequest.getMatchingETagConstraints();
+        if (!matching.isEmpty() && !matching.contains(source.getObjectMetadata().getETag()))
+            // the constraints are not met
+            return null;
+        try (InputStream stream = source.getObjectContent()) {
+            byte[] content = IOUtils.toByteArray(stream);
+            int first = copyPartRequest.getFirstByte() == null ? 0 : copyPartRequest.getFirstByte().intValue();
+            int last = copyPartRequest.getLastByte() == null ? content.length - 1 : copyPartRequest.getLastByte().intValue();
+            byte[] part = Arrays.copyOfRange(content, first, last + 1);
+            upload.parts.put(copyPartRequest.getPartNumber(), part);
+            CopyPartResult result = new CopyPartResult();
+            result.setPartNumber(copyPartRequest.getPartNumber());
+            result.setETag(BinaryUtils.toHex(Md5Utils.computeMD5Hash(part)));
+            return result;
+        } catch (IOException e) {
+            throw new AmazonClientException(e);
+        }
     }
 
     @Override
@@ -987,7 +1092,25 @@ public class AmazonS3ClientMock extends AbstractAmazonS3 {
 
     @Override
     public DeleteObjectsResult deleteObjects(DeleteObjectsRequest deleteObjectsRequest) throws AmazonClientException {
-        throw new UnsupportedOperationException();
+        List<DeleteObjectsResult.DeletedObject> deleted = new ArrayList<>();
+        List<MultiObjectDeleteException.DeleteError> errors = new ArrayList<>();
+        for (DeleteObjectsRequest.KeyVersion keyVersion : deleteObjectsRequest.getKeys()) {
+            try {
+                deleteObject(deleteObjectsRequest.getBucketName(), keyVersion.getKey());
+                DeleteObjectsResult.DeletedObject deletedObject = new DeleteObjectsResult.DeletedObject();
+                deletedObject.setKey(keyVersion.getKey());
+                deleted.add(deletedObject);
+            } catch (AmazonServiceException e) {
+                MultiObjectDeleteException.DeleteError error = new MultiObjectDeleteException.DeleteError();
+                error.setKey(keyVersion.getKey());
+                error.setCode(e.getErrorCode());
+                error.setMessage(e.getErrorMessage());
+                errors.add(error);
+            }
+        }
+        if (!errors.isEmpty())
+            throw new MultiObjectDeleteException(errors, deleted);
+        return new DeleteObjectsResult(deleted);
     }
 
     @Override
@@ -1217,12 +1340,44 @@ public class AmazonS3ClientMock extends AbstractAmazonS3 {
 
     @Override
     public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) throws AmazonClientException {
-        throw new UnsupportedOperationException();
+        if (!Files.exists(find(request.getBucketName()))) {
+            AmazonS3Exception amazonS3Exception = new AmazonS3Exception("bucket not found: " + request.getBucketName());
+            amazonS3Exception.setStatusCode(404);
+            throw amazonS3Exception;
+        }
+        String uploadId = UUID.randomUUID().toString();
+        multipartUploads.put(uploadId, new MultipartUpload(request.getBucketName(), request.getKey()));
+        InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+        result.setBucketName(request.getBucketName());
+        result.setKey(request.getKey());
+        result.setUploadId(uploadId);
+        return result;
     }
 
     @Override
     public UploadPartResult uploadPart(UploadPartRequest request) throws AmazonClientException {
-        throw new UnsupportedOperationException();
+        MultipartUpload upload = getMultipartUpload(request.getUploadId());
+        try {
+            InputStream stream = request.getInputStream();
+            if (stream == null)
+                stream = Files.newInputStream(request.getFile().toPath());
+            byte[] content = new byte[(int) request.getPartSize()];
+            int read = 0;
+            while (read < content.length) {
+                int count = stream.read(content, read, content.length - read);
+                if (count < 0)
+                    break;
+                read += count;
+            }
+            content = Arrays.copyOf(content, read);
+            upload.parts.put(request.getPartNumber(), content);
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag(BinaryUtils.toHex(Md5Utils.computeMD5Hash(content)));
+            return result;
+        } catch (IOException e) {
+            throw new AmazonClientException(e);
+        }
     }
 
     @Override
@@ -1232,12 +1387,68 @@ public class AmazonS3ClientMock extends AbstractAmazonS3 {
 
     @Override
     public void abortMultipartUpload(AbortMultipartUploadRequest request) throws AmazonClientException {
-        throw new UnsupportedOperationException();
+        getMultipartUpload(request.getUploadId());
+        multipartUploads.remove(request.getUploadId());
     }
 
     @Override
     public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) throws AmazonClientException {
-        throw new UnsupportedOperationException();
+        MultipartUpload upload = getMultipartUpload(request.getUploadId());
+        checkIfNoneMatch(request, upload.bucketName, upload.key);
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (PartETag partETag : request.getPartETags()) {
+            byte[] part = upload.parts.get(partETag.getPartNumber());
+            if (part == null)
+                throw new AmazonServiceException("part not uploaded: " + partETag.getPartNumber());
+            content.write(part, 0, part.length);
+        }
+        persist(upload.bucketName, parse(new ByteArrayInputStream(content.toByteArray()), upload.bucketName, upload.key));
+        multipartUploads.remove(request.getUploadId());
+
+        CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+        result.setBucketName(upload.bucketName);
+        result.setKey(upload.key);
+        result.setETag("3a5c8b1ad448bca04584ecb55b836264-" + request.getPartETags().size());
+        return result;
+    }
+
+    /**
+     * multipart uploads initiated and not completed or aborted yet
+     *
+     * @return Map with the uploadId and the bucket/key
+     */
+    public Map<String, MultipartUpload> getMultipartUploads() {
+        return multipartUploads;
+    }
+
+    private MultipartUpload getMultipartUpload(String uploadId) {
+        MultipartUpload upload = multipartUploads.get(uploadId);
+        if (upload == null) {
+            AmazonS3Exception amazonS3Exception = new AmazonS3Exception("The specified upload does not exist: " + uploadId);
+            amazonS3Exception.setStatusCode(404);
+            amazonS3Exception.setErrorCode("NoSuchUpload");
+            throw amazonS3Exception;
+        }
+        return upload;
+    }
+
+    public static class MultipartUpload {
+        private final String bucketName;
+        private final String key;
+        private final Map<Integer, byte[]> parts = new ConcurrentHashMap<>();
+
+        public MultipartUpload(String bucketName, String key) {
+            this.bucketName = bucketName;
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public Map<Integer, byte[]> getParts() {
+            return parts;
+        }
     }
 
     @Override